@@ -1,10 +1,12 @@
 package dk.dren.lightmotion;
 
+import com.codahale.metrics.Gauge;
 import dk.dren.lightmotion.config.ServerConfiguration;
 import dk.dren.lightmotion.core.LightMotion;
 import dk.dren.lightmotion.db.Database;
 import dk.dren.lightmotion.healthchecks.DiskSpaceCheck;
 import dk.dren.lightmotion.injectors.InjectorBinder;
+import dk.dren.lightmotion.resources.DebugFrameResource;
 import dk.dren.lightmotion.resources.FrontPageResource;
 import io.dropwizard.Application;
 import io.dropwizard.assets.AssetsBundle;
@@ -90,8 +92,19 @@ public class Server extends Application<ServerConfiguration>{
 		// Register healthchecks, there really should be many more than just one.
 		environment.healthChecks().register("Disk-space", new DiskSpaceCheck());
 
+		// Should stay flat once the cameras are running, see FramePool
+		environment.metrics().register("frame-buffer-allocations", (Gauge<Long>) cameraManager::getFrameBufferAllocations);
+
+		// Frames that the motion workers didn't get round to before a newer one arrived, see SnapshotMailbox
+		environment.metrics().register("frames-replaced", (Gauge<Long>) cameraManager::getReplacedFrames);
+		environment.metrics().register("frames-dropped", (Gauge<Long>) cameraManager::getDroppedFrames);
+
+		// Debug composites skipped because the encoder was busy, see DebugCapture
+		environment.metrics().register("debug-captures-dropped", (Gauge<Long>) cameraManager::getDebugCapturesDropped);
+
 		// Register resources
 		environment.jersey().register(FrontPageResource.class);
+		environment.jersey().register(new DebugFrameResource(cameraManager));
 
 		environment.lifecycle().manage(cameraManager);
 	}
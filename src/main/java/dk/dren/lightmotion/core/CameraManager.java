@@ -3,132 +3,198 @@ package dk.dren.lightmotion.core;
 import dk.dren.lightmotion.core.events.EventSink;
 import dk.dren.lightmotion.db.entity.Camera;
 import dk.dren.lightmotion.db.entity.Event;
+import dk.dren.lightmotion.core.snapshot.MotionDetector;
 import dk.dren.lightmotion.core.snapshot.SnapshotProcessingManager;
 import dk.dren.lightmotion.onvif.ONVIFCamera;
 import dk.dren.lightmotion.onvif.ONVIFProfile;
+import dk.dren.lightmotion.onvif.ONVIFProfileCache;
 import lombok.Getter;
 import lombok.extern.java.Log;
-import org.apache.commons.io.IOUtils;
-import org.apache.http.client.methods.CloseableHttpResponse;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
-import org.xml.sax.SAXException;
-
-import javax.xml.soap.SOAPException;
+
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.lang.reflect.Field;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 
 /**
  * Read a camera, this means two things:
- * 1a: Run a thread that starts the external lowres streamer process and waits for it to quit and if it does, then restarts it.
- * 1b: Run a thread that periodically polls the snapshot url to get a snapshot, which is then fed into the snapshot queue.
- * 2: Run a thread that starts the external streamer process and waits for it to quit and if it does, then restarts it.
+ * 1a: Supervise the external lowres streamer process, restarting it if it quits,
+ *     the frames are either read from the stdout of the process or from the files it writes to the working dir.
+ * 1b: Schedule the polling of the snapshot url with the SnapshotPoller, which puts the snapshots in the mailbox of the camera.
+ * 2: Supervise the external streamer process, restarting it if it quits.
  *
- * TODO: Split out the 3 threads that manage external processes, so this class gets smaller.
+ * None of this has a thread of its own, it all runs as short tasks on the camera scheduler shared by all cameras,
+ * see ProcessSupervisor.
  */
 @Log
 @Getter
 public class CameraManager implements EventSink {
     private final LightMotion lightMotion;
     private Camera camera;
-    private Thread snapshotThread;
-    private Thread streamThread;
     private ONVIFCamera onvif;
-    private boolean keepRunning = true;
+    private volatile boolean keepRunning = true;
     private String error;
-    private Process streamProcess;
-    private boolean streamProcessRunning;
-    private boolean streamProcessKilling;
     private SnapshotProcessingManager snapshotProcessingManager;
-    private ONVIFProfile highresProfile;
-    private ONVIFProfile lowresProfile;
-    private Process lowresStreamProcess;
-    private boolean lowresStreamProcessRunning;
-    private boolean lowresStreamProcessKilling;
-    private Thread lowresSnapshotThread;
+    private volatile ONVIFProfile highresProfile;
+    private volatile ONVIFProfile lowresProfile;
+    private ProcessSupervisor streamSupervisor;
+    private ProcessSupervisor lowresStreamSupervisor;
+    private ScheduledFuture<?> lowresSnapshotLoad;
+    private ScheduledFuture<?> snapshotPoll;
 
     public CameraManager(LightMotion lightMotion, Camera camera) {
         this.lightMotion = lightMotion;
         this.camera = camera;
     }
 
+    /**
+     * Gets the camera going, if the profiles of the camera are cached from an earlier run, the streams are started
+     * from the cache right away and the camera is interrogated in the background to see if they're still valid,
+     * otherwise the streams start once the interrogation is done.
+     */
     void start() {
+        try {
+            LightMotion.mkdir(getChunkDir(), "camera-chunks");
+            LightMotion.mkdir(getStateDir(), "camera-state");
+            LightMotion.mkdir(getWorkingDir(), "camera-working");
+
+            snapshotProcessingManager = new SnapshotProcessingManager(this);
+            lightMotion.registerSnapshotProcessingManager(snapshotProcessingManager);
+
+            ONVIFProfileCache cache = ONVIFProfileCache.read(getProfileCacheFile());
+            boolean cached = cache != null && cache.isFor(camera.getAddress(), camera.getProfileNumber(), camera.getLowResProfileNumber());
+            if (cached) {
+                log.info("Starting "+camera.getName()+" from the cached ONVIF profiles, they are checked in the background");
+                synchronized (this) {
+                    highresProfile = cache.getHighres();
+                    lowresProfile = cache.getLowres();
+                    startStreams();
+                }
+            }
+            lightMotion.getDiscoveryExecutor().execute(() -> discover(cached));
 
-        snapshotThread = new Thread(() -> {
-            try {
-                LightMotion.mkdir(getChunkDir(), "camera-chunks");
-                LightMotion.mkdir(getStateDir(), "camera-state");
-                LightMotion.mkdir(getWorkingDir(), "camera-working");
-
-                snapshotProcessingManager = new SnapshotProcessingManager(this);
-                interrogateOnvif();
-                startStreamThread();
-                if (camera.isLowResSnapshot()) {
-                    lowresHttpJpegSnapshots();
-                } else {
-                    lowresStreamSnapshots();
+        } catch (Throwable e) {
+            if (keepRunning) {
+                log.log(Level.SEVERE, "Failed while starting " + camera.getName() + ": ", e);
+                error = "Starting failed " + e.toString();
+            }
+        }
+    }
+
+    /**
+     * Interrogates the camera and caches the profiles, then starts the streams, or restarts them if they were
+     * started from a cache that turned out to be stale.
+     *
+     * @param running true if the streams were started from the cache
+     */
+    private void discover(boolean running) {
+        try {
+            onvif = new ONVIFCamera(camera.getAddress(), camera.getUser(), camera.getPassword(),
+                    new HashSet<>(Arrays.asList(camera.getProfileNumber(), camera.getLowResProfileNumber())));
+            ONVIFProfile highres = onvif.getProfiles().get(camera.getProfileNumber());
+            ONVIFProfile lowres = onvif.getProfiles().get(camera.getLowResProfileNumber());
+            new ONVIFProfileCache(camera.getAddress(), camera.getProfileNumber(), camera.getLowResProfileNumber(), highres, lowres)
+                    .write(getProfileCacheFile());
+
+            synchronized (this) {
+                if (!keepRunning) {
+                    return;
                 }
-            } catch (Throwable e) {
-                if (keepRunning) {
-                    log.log(Level.SEVERE, "Failed in the snapshot thread for " + camera.getName() + ": ", e);
-                    error = "Snapshot thread exited " + e.toString();
+                if (running && highres.equals(highresProfile) && lowres.equals(lowresProfile)) {
+                    log.info("The cached ONVIF profiles of "+camera.getName()+" are still valid");
+                    return;
                 }
+                if (running) {
+                    log.warning("The ONVIF profiles of "+camera.getName()+" have changed, restarting the streams");
+                    stopStreams();
+                }
+                highresProfile = highres;
+                lowresProfile = lowres;
+                startStreams();
+            }
+        } catch (Throwable e) {
+            if (keepRunning) {
+                log.log(Level.SEVERE, "Failed while interrogating " + camera.getName() + (running ? ", streaming from the cached profiles" : "") + ": ", e);
+                error = "Interrogating the camera failed " + e.toString();
             }
-        });
-        snapshotThread.setName("Polling snapshots from "+camera.getName());
-        snapshotThread.setDaemon(true);
-        snapshotThread.start();
+        }
     }
 
-    void stop() throws InterruptedException {
-        keepRunning = false;
-        snapshotThread.interrupt();
-        streamThread.interrupt();
-        snapshotThread.join();
-        streamThread.join();
+    private void startStreams() throws IOException {
+        startStreamer();
+        if (camera.isLowResSnapshot()) {
+            lowresHttpJpegSnapshots();
+        } else {
+            lowresStreamSnapshots();
+        }
     }
 
-    private void interrogateOnvif() throws SOAPException, SAXException, IOException {
-        onvif = new ONVIFCamera(camera.getAddress(), camera.getUser(), camera.getPassword());
+    private void stopStreams() throws InterruptedException, IOException {
+        if (snapshotPoll != null) {
+            snapshotPoll.cancel(false);
+        }
+        if (lowresSnapshotLoad != null) {
+            lowresSnapshotLoad.cancel(false);
+        }
+        if (lowresStreamSupervisor != null) {
+            lowresStreamSupervisor.stop();
+        }
+        if (streamSupervisor != null) {
+            streamSupervisor.stop();
+        }
+    }
 
-        highresProfile = onvif.getProfiles().get(camera.getProfileNumber());
-        lowresProfile = onvif.getProfiles().get(camera.getLowResProfileNumber());
+    synchronized void stop() throws InterruptedException, IOException {
+        keepRunning = false;
+        stopStreams();
     }
 
+    private File getProfileCacheFile() {
+        return new File(getStateDir(), "onvif-profiles.json");
+    }
 
-    private void startStreamThread() {
+    private void startStreamer() {
         if (System.getProperty("nostream","").equals("true")) {
             return;
         }
 
-        snapshotThread.setName("Polling snapshots from "+camera.getName()+" via "+lowresProfile.getSnapshotUri());
-        streamThread = new Thread(() -> {
-            try {
-                streamer();
-            } catch (Throwable e) {
-                if (!keepRunning) {
-                    log.log(Level.SEVERE, "Failed in the streaming thread for " + camera.getName() + ": ", e);
-                    error = "Streaming thread exited " + e.toString();
-                }
-            }
-        });
-        streamThread.setName("Streaming from "+camera.getName()+" via "+lowresProfile.getSnapshotUri());
-        streamThread.setDaemon(true);
-        streamThread.start();
+        streamSupervisor = new ProcessSupervisor("ffmpeg streamer for "+camera.getName(), lightMotion.getCameraScheduler(), this::launchStreamer);
+        streamSupervisor.start();
     }
 
+    private static final ThreadLocal<TimeStampFormat> TIME_STAMP_FORMAT = ThreadLocal.withInitial(TimeStampFormat::new);
+
+    /**
+     * @return The current time as yyyyMMdd_HHmmss, the same String instance is returned for calls within the same second.
+     */
     public static String getTimeStamp() {
-        SimpleDateFormat sdf = new SimpleDateFormat("yyyyMMdd_HHmmss");
-        return sdf.format(new Date());
+        return TIME_STAMP_FORMAT.get().format(System.currentTimeMillis());
+    }
+
+    /**
+     * SimpleDateFormat isn't thread safe and expensive to create, so each thread keeps one around along with the
+     * last result, as the lowres frames arrive several times per second.
+     */
+    private static class TimeStampFormat {
+        private final SimpleDateFormat sdf = new SimpleDateFormat("yyyyMMdd_HHmmss");
+        private long second = -1;
+        private String formatted;
+
+        String format(long now) {
+            long nowSecond = now / 1000;
+            if (nowSecond != second) {
+                second = nowSecond;
+                formatted = sdf.format(new Date(now));
+            }
+            return formatted;
+        }
     }
 
     public File getChunkDir() {
@@ -143,201 +209,166 @@ public class CameraManager implements EventSink {
         return new File(lightMotion.getConfig().getStateRoot(), camera.getName());
     }
 
-    private long getStreamerPid() {
-        // TODO: Once Java 9 comes out we finally get Process.getPid() and we can get rid of this bullshit
-        try {
-            if (streamProcess.getClass().getName().equals("java.lang.UNIXProcess")) {
-                Field f = streamProcess.getClass().getDeclaredField("pid");
-                f.setAccessible(true);
-                return ((Integer)f.get(streamProcess)).longValue();
-            } else {
-                throw new RuntimeException("Unsupported process class: "+streamProcess.getClass().getName());
-            }
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
-    }
-
-    private final Object KILL_LOCK = new Object();
-    private void killStreamer() throws IOException, InterruptedException {
-        synchronized (KILL_LOCK) {
-            streamProcessKilling = true;
-            long streamerPid = getStreamerPid();
-            killProcess(streamerPid, "HUB"); // Ask nicely
-            if (streamProcessKilling) {
-                if (!streamProcess.waitFor(5, TimeUnit.SECONDS)) {
-                    killProcess(streamerPid, "KILL");
-                }
-            }
-        }
+    private Process launchStreamer() throws IOException {
+        ProcessBuilder pb = new ProcessBuilder(lightMotion.getFfmpeg().getAbsolutePath(),
+                "-i", highresProfile.getStreamUrl(), "-map", "0", "-probesize", "32",
+
+                "-vcodec", "copy", // Copy video without any re-encoding
+                "-an", // Drop audio
+                "-f", "segment",
+                "-segment_time", lightMotion.getConfig().getChunkLength().toString(),
+                "-segment_atclocktime", "1",
+                "-segment_format", "mp4",
+                "-strftime", "1",
+                "%Y-%m-%d_%H-%M-%S.mp4"
+        );
+        pb.directory(getChunkDir());
+
+        log.info("Running: "+String.join(" ", pb.command()));
+        Process streamProcess = pb.start();
+        StreamFifoLogger.glom(streamProcess, streamProcess.getErrorStream(), new File(getChunkDir(), "ffmpeg.err"));
+        StreamFifoLogger.glom(streamProcess, streamProcess.getInputStream(), new File(getChunkDir(), "ffmpeg.out"));
+        return streamProcess;
     }
 
-    private static void killProcess(long streamerPid, String signal) throws InterruptedException, IOException {
-        ProcessBuilder killer = new ProcessBuilder("kill", "-"+signal, Long.toString(streamerPid));
-        killer.inheritIO().start().waitFor();
+    /**
+     * Hands the polling of jpeg snapshots over to the SnapshotPoller shared by all cameras, which puts them in the
+     * mailbox of the camera for its motion worker to take care of.
+     */
+    private void lowresHttpJpegSnapshots() {
+        snapshotPoll = lightMotion.getSnapshotPoller().schedule(this, lowresProfile.getSnapshotUri());
     }
 
-    private void streamer() throws IOException, InterruptedException {
-
-        while (keepRunning) {
-            String timestamp = getTimeStamp();
-
-            ProcessBuilder pb = new ProcessBuilder(lightMotion.getFfmpeg().getAbsolutePath(),
-                    "-i", highresProfile.getStreamUrl(), "-map", "0", "-probesize", "32",
-
-                    "-vcodec", "copy", // Copy video without any re-encoding
-                    "-an", // Drop audio
-                    "-f", "segment",
-                    "-segment_time", lightMotion.getConfig().getChunkLength().toString(),
-                    "-segment_atclocktime", "1",
-                    "-segment_format", "mp4",
-                    "-strftime", "1",
-                    "%Y-%m-%d_%H-%M-%S.mp4"
-            );
-            pb.directory(getChunkDir());
-
-            log.info("Running: "+String.join(" ", pb.command()));
-            streamProcess = pb.start();
-            StreamFifoLogger.glom(streamProcess.getErrorStream(), new File(getChunkDir(), "ffmpeg.err"));
-            StreamFifoLogger.glom(streamProcess.getInputStream(), new File(getChunkDir(), "ffmpeg.out"));
-            streamProcessRunning = true;
-            int err = -1;
-            try {
-                err = streamProcess.waitFor();
-                log.info("Exit code from ffmpeg streamer was: "+err);
-            } finally {
-                streamProcessRunning = false;
-                streamProcessKilling = false;
-            }
-            if (err != 0) {
-                Thread.sleep(1000); // Don't burn all the CPU in case of an error.
-            }
+    private boolean isLowresPiped() {
+        if (lightMotion.getConfig().getLowresIngest() != LowresIngest.PIPE) {
+            return false;
         }
-
-        if (streamProcessRunning) {
-            killStreamer();
+        if (lowresProfile.getWidth() == null || lowresProfile.getHeight() == null) {
+            log.warning("The lowres profile of "+camera.getName()+" has no resolution, so frames cannot be piped, falling back to files");
+            return false;
         }
+        return true;
     }
 
-    /**
-     * fetches a snapshot from the camera and stores it in the queue for the main thread to take care of
-     *
-     * ffmpeg -probesize 32 -i rtsp://10.0.2.93:554/12 -r 1/1 -f image2 frame%04d.pnm
-     */
-    private void lowresHttpJpegSnapshots() throws InterruptedException, IOException {
-        try (CloseableHttpClient hc = HttpClients.createDefault()) {
-            while (keepRunning) {
-
-                log.fine("Fetching "+lowresProfile.getSnapshotUri());
-                HttpGet req = new HttpGet(lowresProfile.getSnapshotUri());
-                try (CloseableHttpResponse response = hc.execute(req)) {
-                    if (response.getStatusLine().getStatusCode() != 200) {
-                        log.severe("Got error response "+response.getStatusLine().getStatusCode()+" from "+lowresProfile.getSnapshotUri());
-                        Thread.sleep(5000);
-
-                    } else {
-                        byte[] imageBytes;
-                        try (InputStream content = response.getEntity().getContent()) {
-                            imageBytes = IOUtils.toByteArray(content);
-                        }
-
-                        String imageName = camera.getName()+"-"+getTimeStamp();
-
-                        // This might block while waiting for room in the queue, so we do this after closing the http response
-                        lightMotion.getSnapshots().add(new CameraSnapshotByteArray(snapshotProcessingManager, imageName, imageBytes));
-                    }
-
-                } catch (Exception e) {
-                    log.warning("Failed while requesting "+lowresProfile.getSnapshotUri()+" "+e);
-                }
+    private void lowresStreamSnapshots() throws IOException {
+        boolean piped = isLowresPiped();
+        boolean grey = lightMotion.getConfig().isLowresGrey();
 
-                Thread.sleep(lightMotion.getConfig().getPollInterval());
-            }
+        if (!piped) {
+            SortedDir sortedWorkingDir = new SortedDir(getWorkingDir(), grey ? ".pgm" : ".ppm");
+            lowresSnapshotLoad = lightMotion.getCameraScheduler().scheduleWithFixedDelay(
+                    () -> loadLowresSnapshots(sortedWorkingDir), 500, 500, TimeUnit.MILLISECONDS);
         }
+
+        lowresStreamSupervisor = new ProcessSupervisor("lowres ffmpeg for "+camera.getName(), lightMotion.getCameraScheduler(),
+                () -> launchLowresStreamer(piped, grey));
+        lowresStreamSupervisor.start();
     }
 
-    private void lowresStreamSnapshots() throws InterruptedException, IOException {
+    private Process launchLowresStreamer(boolean piped, boolean grey) throws IOException {
         File lowresDir = getWorkingDir();
 
-        lowresSnapshotThread = new Thread(() -> {
-            try {
-                lowresSnapshotLoader();
-            } catch (Throwable e) {
-                if (!keepRunning) {
-                    log.log(Level.SEVERE, "Failed in the lowres loading thread for " + camera.getName() + ": ", e);
-                    error = "Lowres loading thread exited " + e.toString();
-                }
-            }
-        });
-        lowresSnapshotThread.setName("Loading lowres snapshots from "+camera.getName()+" via "+lowresProfile.getSnapshotUri());
-        lowresSnapshotThread.setDaemon(true);
-        lowresSnapshotThread.start();
-
-        while (keepRunning) {
-
-            // ffmpeg -probesize 32 -i rtsp://10.0.2.93:554/12 -r 1/1 -f image2 frame%04d.pnm
-            List<String> cmd = new ArrayList<>();
-            cmd.add(lightMotion.getFfmpeg().getAbsolutePath());
-            cmd.add("-i"); cmd.add(lowresProfile.getStreamUrl());
-            cmd.add("-probesize"); cmd.add("32");
-            cmd.add("-r"); cmd.add("1/1");
-            cmd.add("-f"); cmd.add("image2");
-            cmd.add("frame-%04d.ppm");
-
-            /*
-            cmd.add("-vcodec"); cmd.add("copy"); // Copy video without any re-encoding
-            cmd.add("-an"); // Drop audio
-            cmd.add("-f"); cmd.add("segment");
-            cmd.add("-segment_time"); cmd.add(lightMotion.getConfig().getChunkLength().toString());
-            cmd.add("-segment_atclocktime"); cmd.add("1");
-            cmd.add("-segment_format"); cmd.add("mp4");
-            cmd.add("-strftime"); cmd.add("1");
-            cmd.add("%Y-%m-%d_%H-%M-%S.mp4");
-            */
-
-            log.info("Running: "+String.join(" ", cmd));
-            ProcessBuilder pb = new ProcessBuilder(cmd);
-            pb.directory(lowresDir);
-
-            lowresStreamProcess = pb.start();
-            StreamFifoLogger.glom(lowresStreamProcess.getErrorStream(), new File(lowresDir, "ffmpeg.err"));
-            StreamFifoLogger.glom(lowresStreamProcess.getInputStream(), new File(lowresDir, "ffmpeg.out"));
-            lowresStreamProcessRunning = true;
-            int err = -1;
-            try {
-                err = lowresStreamProcess.waitFor();
-                log.info("Exit code from ffmpeg was: "+err);
-            } finally {
-                lowresStreamProcessRunning = false;
-                lowresStreamProcessKilling = false;
+        // ffmpeg -probesize 32 -i rtsp://10.0.2.93:554/12 -r 1/1 -f image2 frame%04d.pnm
+        List<String> cmd = new ArrayList<>();
+        cmd.add(lightMotion.getFfmpeg().getAbsolutePath());
+        cmd.add("-i"); cmd.add(lowresProfile.getStreamUrl());
+        cmd.add("-probesize"); cmd.add("32");
+        // Frames arrive at the highest rate a camera is sampled at, the FrameRate of the camera picks the ones to use
+        cmd.add("-r"); cmd.add(Double.toString(Math.max(lightMotion.getConfig().getDetectionFps(), lightMotion.getConfig().getMotionDetectionFps())));
+        if (piped) {
+            // Force the size, so a camera that lies about its resolution doesn't cause the frames to be misaligned
+            if (grey) {
+                cmd.add("-vf"); cmd.add("scale="+getLowresFrameWidth()+":"+getLowresFrameHeight()+":flags=area,format=gray");
+            } else {
+                cmd.add("-s"); cmd.add(getLowresFrameWidth()+"x"+getLowresFrameHeight());
             }
-            if (err != 0) {
-                Thread.sleep(1000); // Don't burn all the CPU in case of an error.
+            cmd.add("-f"); cmd.add("rawvideo");
+            cmd.add("-pix_fmt"); cmd.add(grey ? "gray" : "rgb24");
+            cmd.add("pipe:1");
+        } else {
+            if (grey) {
+                cmd.add("-vf"); cmd.add("scale=iw/"+MotionDetector.DETECTION_DOWNSCALE+":ih/"+MotionDetector.DETECTION_DOWNSCALE+":flags=area,format=gray");
             }
+            cmd.add("-f"); cmd.add("image2");
+            cmd.add(grey ? "frame-%04d.pgm" : "frame-%04d.ppm");
         }
+
+        /*
+        cmd.add("-vcodec"); cmd.add("copy"); // Copy video without any re-encoding
+        cmd.add("-an"); // Drop audio
+        cmd.add("-f"); cmd.add("segment");
+        cmd.add("-segment_time"); cmd.add(lightMotion.getConfig().getChunkLength().toString());
+        cmd.add("-segment_atclocktime"); cmd.add("1");
+        cmd.add("-segment_format"); cmd.add("mp4");
+        cmd.add("-strftime"); cmd.add("1");
+        cmd.add("%Y-%m-%d_%H-%M-%S.mp4");
+        */
+
+        log.info("Running: "+String.join(" ", cmd));
+        ProcessBuilder pb = new ProcessBuilder(cmd);
+        pb.directory(lowresDir);
+
+        Process lowresStreamProcess = pb.start();
+        StreamFifoLogger.glom(lowresStreamProcess, lowresStreamProcess.getErrorStream(), new File(lowresDir, "ffmpeg.err"));
+        if (piped) {
+            RawFrameReader.start(lightMotion.getCameraScheduler(), lowresStreamProcess, camera.getName(), lightMotion,
+                    snapshotProcessingManager, getLowresFrameWidth(), getLowresFrameHeight(), grey);
+        } else {
+            StreamFifoLogger.glom(lowresStreamProcess, lowresStreamProcess.getInputStream(), new File(lowresDir, "ffmpeg.out"));
+        }
+        return lowresStreamProcess;
     }
 
-    private void lowresSnapshotLoader() throws InterruptedException, IOException {
-        SortedDir sortedWorkingDir = new SortedDir(getWorkingDir(), ".ppm");
+    /**
+     * The size of the frames the lowres ffmpeg process produces, in grey mode ffmpeg scales the frames down to
+     * the detection resolution, so the JVM never sees the full frame.
+     */
+    private int getLowresFrameWidth() {
+        return lightMotion.getConfig().isLowresGrey() ? lowresProfile.getWidth()/MotionDetector.DETECTION_DOWNSCALE : lowresProfile.getWidth();
+    }
 
-        while (keepRunning) {
-            Thread.sleep(500);
+    private int getLowresFrameHeight() {
+        return lightMotion.getConfig().isLowresGrey() ? lowresProfile.getHeight()/MotionDetector.DETECTION_DOWNSCALE : lowresProfile.getHeight();
+    }
 
+    /**
+     * Hands the frames ffmpeg has written to the working dir over to the motion workers, except the newest one,
+     * which ffmpeg may still be writing.
+     *
+     * Any exception must be caught here, as it would otherwise cancel the schedule.
+     */
+    private void loadLowresSnapshots(SortedDir sortedWorkingDir) {
+        try {
             List<File> fileList = sortedWorkingDir.list();
             if (fileList.size() < 2) {
-                continue; // Wait until there's at least two files in the buffer
+                return; // Wait until there's at least two files in the buffer
             }
             fileList.remove(fileList.size()-1); // Don't load the newest file.
 
             for (File file : fileList) {
+                if (!snapshotProcessingManager.getFrameRate().accept(file.lastModified())) {
+                    file.delete(); // Not needed at the current frame rate
+                    continue;
+                }
                 String imageName = camera.getName()+"-"+getTimeStamp();
 
-                CameraSnapshotFile sn = new CameraSnapshotFile(snapshotProcessingManager, imageName, file);
-                if (lightMotion.getSnapshots().offer(sn)) {
-                    sn.getImageBytes(); // Force loading the bytes into memory, so decoding can happen in the loading thread.
+                if (lightMotion.getConfig().getLowresIngest() == LowresIngest.MAPPED_FILE) {
+                    try {
+                        // The mapping survives the file being unlinked, so the file is gone before it's even parsed
+                        lightMotion.offerSnapshot(CameraSnapshotMappedFile.map(snapshotProcessingManager, imageName, file));
+                    } catch (IOException e) {
+                        log.warning("Failed to map "+file+" "+e);
+                    }
+                } else {
+                    CameraSnapshotFile sn = new CameraSnapshotFile(snapshotProcessingManager, imageName, file);
+                    sn.getImageBytes(); // Force loading the bytes into memory, before the file is deleted
+                    lightMotion.offerSnapshot(sn);
                 }
                 file.delete();
             }
+        } catch (Throwable e) {
+            log.log(Level.SEVERE, "Failed while loading lowres snapshots for " + camera.getName() + ": ", e);
+            error = "Lowres loading failed " + e.toString();
         }
     }
 
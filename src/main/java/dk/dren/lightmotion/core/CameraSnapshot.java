@@ -9,7 +9,11 @@ public interface CameraSnapshot {
 
     String getName();
 
-    byte[] getImageBytes();
-
     void processSnapshot() throws IOException;
+
+    /**
+     * Hands any pooled buffers back, call this if the snapshot is dropped without being processed.
+     */
+    default void release() {
+    }
 }
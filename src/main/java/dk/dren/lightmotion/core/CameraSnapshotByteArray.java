@@ -25,11 +25,40 @@ public class CameraSnapshotByteArray implements CameraSnapshot {
     private final String name;
 
     /**
-     * The actual bytes of the image
+     * The actual bytes of the image, the array may be longer than the image
      */
     private final byte[] imageBytes;
 
+    /**
+     * The number of bytes in imageBytes that belong to the image
+     */
+    private final int length;
+
+    /**
+     * True if the imageBytes came from the FramePool of the processing manager, so they must be handed back to it
+     */
+    private final boolean pooled;
+
+    public CameraSnapshotByteArray(SnapshotProcessingManager snapshotProcessingManager, String name, byte[] imageBytes) {
+        this(snapshotProcessingManager, name, imageBytes, imageBytes.length, false);
+    }
+
     public void processSnapshot() throws IOException {
-        snapshotProcessingManager.processSnapshot(name, imageBytes);
+        try {
+            snapshotProcessingManager.processSnapshot(name, imageBytes, length);
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Hands the buffer back to the pool, if it came from there, call this if the snapshot is dropped without being
+     * processed.
+     */
+    @Override
+    public void release() {
+        if (pooled) {
+            snapshotProcessingManager.getFramePool().release(imageBytes);
+        }
     }
 }
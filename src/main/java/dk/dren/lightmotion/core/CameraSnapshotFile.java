@@ -16,7 +16,6 @@ public class CameraSnapshotFile implements CameraSnapshot {
     private final File file;
     private byte[] imageBytes;
 
-    @Override
     public byte[] getImageBytes() {
         synchronized (file) {
             if (imageBytes == null) {
@@ -0,0 +1,36 @@
+package dk.dren.lightmotion.core;
+
+import dk.dren.lightmotion.core.snapshot.SnapshotProcessingManager;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A snapshot file from the working dir, mapped into memory rather than read onto the heap.
+ *
+ * The file is mapped in the loading thread and parsed in place by the processing thread, once the file has been
+ * mapped it can be unlinked, the pages stay alive until the buffer is garbage collected.
+ */
+@Getter
+@RequiredArgsConstructor
+public class CameraSnapshotMappedFile implements CameraSnapshot {
+    private final SnapshotProcessingManager snapshotProcessingManager;
+    private final String name;
+    private final MappedByteBuffer buffer;
+
+    public static CameraSnapshotMappedFile map(SnapshotProcessingManager snapshotProcessingManager, String name, File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return new CameraSnapshotMappedFile(snapshotProcessingManager, name, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    @Override
+    public void processSnapshot() throws IOException {
+        snapshotProcessingManager.processSnapshot(name, buffer);
+    }
+}
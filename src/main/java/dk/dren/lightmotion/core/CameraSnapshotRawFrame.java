@@ -0,0 +1,32 @@
+package dk.dren.lightmotion.core;
+
+import dk.dren.lightmotion.core.snapshot.SnapshotProcessingManager;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.io.IOException;
+
+/**
+ * A single rgb24 or gray frame read from the stdout of the lowres ffmpeg process, there's no header, so the size
+ * must be carried along with the pixels.
+ */
+@RequiredArgsConstructor
+@Getter
+public class CameraSnapshotRawFrame implements CameraSnapshot {
+    private final SnapshotProcessingManager snapshotProcessingManager;
+    private final String name;
+    private final int width;
+    private final int height;
+    private final boolean monochrome;
+    private final byte[] pixelBytes;
+
+    @Override
+    public void processSnapshot() throws IOException {
+        snapshotProcessingManager.processRawFrame(name, width, height, monochrome, pixelBytes);
+    }
+
+    @Override
+    public void release() {
+        snapshotProcessingManager.getFramePool().release(pixelBytes);
+    }
+}
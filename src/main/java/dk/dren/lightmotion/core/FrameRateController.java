@@ -0,0 +1,120 @@
+package dk.dren.lightmotion.core;
+
+import dk.dren.lightmotion.core.snapshot.SnapshotProcessingManager;
+import lombok.extern.java.Log;
+
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+
+/**
+ * Decides how often each camera is sampled for motion detection, see FrameRate.
+ *
+ * A camera with an open MOTION event is sampled at the motion rate, so a moving object is tracked closely, the
+ * FrameRate switches to it as soon as the event starts. All the quiet cameras share one rate, which starts at the
+ * detection rate and is halved every CONTROL_INTERVAL while the motion workers are overloaded, down to the minimum
+ * rate, and doubled back up while they have time to spare.
+ *
+ * The workers are overloaded when they're busy most of the time, or when frames are replaced in the mailboxes before
+ * the workers get to them.
+ */
+@Log
+public class FrameRateController {
+    /**
+     * How often the rates are adjusted, in milliseconds
+     */
+    public static final long CONTROL_INTERVAL = 5000;
+
+    /**
+     * The fraction of the time the workers may be busy before the quiet cameras are slowed down
+     */
+    private static final double OVERLOADED = 0.8;
+
+    /**
+     * The fraction of the time the workers must be idle before the quiet cameras are sped up again
+     */
+    private static final double UNDERLOADED = 0.5;
+
+    enum Load {
+        OVERLOADED, NORMAL, UNDERLOADED
+    }
+
+    private final MotionWorkers motionWorkers;
+    private final Supplier<List<SnapshotProcessingManager>> cameras;
+    private final long motionInterval;
+    private final long detectionInterval;
+    private final long maxInterval;
+    private long quietInterval;
+    private long lastNanos = System.nanoTime();
+    private long lastBusyNanos;
+    private long lastReplaced;
+
+    /**
+     * @param cameras The cameras that are running
+     */
+    public FrameRateController(MotionWorkers motionWorkers, Supplier<List<SnapshotProcessingManager>> cameras, LightMotionConfig config) {
+        this.motionWorkers = motionWorkers;
+        this.cameras = cameras;
+        motionInterval = toInterval(config.getMotionDetectionFps());
+        detectionInterval = toInterval(config.getDetectionFps());
+        maxInterval = Math.max(detectionInterval, toInterval(config.getMinDetectionFps()));
+        quietInterval = detectionInterval;
+    }
+
+    private static long toInterval(double fps) {
+        return Math.round(1000 / fps);
+    }
+
+    /**
+     * Measures the load since the last call and sets the interval of every camera, this is run every
+     * CONTROL_INTERVAL on the camera scheduler.
+     *
+     * Any exception must be caught here, as it would otherwise cancel the schedule.
+     */
+    public void adjust() {
+        try {
+            long now = System.nanoTime();
+            long busyNanos = motionWorkers.getBusyNanos();
+            long replaced = motionWorkers.getReplacedFrames();
+            double busy = (double)(busyNanos - lastBusyNanos) / ((now - lastNanos) * (double)motionWorkers.getWorkers());
+            Load load = load(busy, replaced - lastReplaced);
+            lastNanos = now;
+            lastBusyNanos = busyNanos;
+            lastReplaced = replaced;
+
+            long newQuietInterval = nextQuietInterval(quietInterval, load, detectionInterval, maxInterval);
+            if (newQuietInterval != quietInterval) {
+                log.info(String.format("Motion workers are %.0f%% busy, sampling quiet cameras every %d ms instead of %d ms",
+                        busy*100, newQuietInterval, quietInterval));
+                quietInterval = newQuietInterval;
+            }
+
+            for (SnapshotProcessingManager spm : cameras.get()) {
+                spm.getFrameRate().setMotionInterval(motionInterval);
+                spm.getFrameRate().setInterval(quietInterval);
+            }
+        } catch (Throwable e) {
+            log.log(Level.SEVERE, "Failed while adjusting the frame rates", e);
+        }
+    }
+
+    static Load load(double busy, long replaced) {
+        if (busy > OVERLOADED || replaced > 0) {
+            return Load.OVERLOADED;
+        } else if (busy < UNDERLOADED) {
+            return Load.UNDERLOADED;
+        }
+        return Load.NORMAL;
+    }
+
+    static long nextQuietInterval(long quietInterval, Load load, long detectionInterval, long maxInterval) {
+        switch (load) {
+            case OVERLOADED:
+                return Math.min(maxInterval, quietInterval*2);
+            case UNDERLOADED:
+                return Math.max(detectionInterval, quietInterval/2);
+            default:
+                return quietInterval;
+        }
+    }
+}
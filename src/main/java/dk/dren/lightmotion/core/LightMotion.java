@@ -2,6 +2,8 @@ package dk.dren.lightmotion.core;
 
 import dk.dren.lightmotion.core.events.EventSink;
 import dk.dren.lightmotion.core.events.EventSinkWithMotionConfigOracle;
+import dk.dren.lightmotion.core.snapshot.MotionKernels;
+import dk.dren.lightmotion.core.snapshot.SnapshotProcessingManager;
 import dk.dren.lightmotion.db.Database;
 import dk.dren.lightmotion.db.entity.Camera;
 import dk.dren.lightmotion.db.entity.Event;
@@ -13,9 +15,15 @@ import org.apache.commons.io.FileUtils;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 
 /**
@@ -27,11 +35,25 @@ public class LightMotion implements Managed, EventSinkWithMotionConfigOracle {
     private final Database database;
     @Getter
     private LightMotionConfig config;
-    private Thread motionThread;
-    private boolean keepRunning = true;
     private final Map<Long, CameraManager> cameraManagers = new TreeMap<>();
+    private final MotionWorkers motionWorkers;
+    private final FrameRateController frameRateController;
     @Getter
-    private final ArrayBlockingQueue<CameraSnapshot> snapshots;
+    private final SnapshotPoller snapshotPoller;
+
+    /**
+     * Runs the supervision of the external processes of all cameras and the reading of their output, see
+     * CameraManager
+     */
+    @Getter
+    private final ScheduledExecutorService cameraScheduler;
+
+    /**
+     * Runs the ONVIF interrogations of the cameras, which block on the network for as long as a camera takes to
+     * answer, the threads go away again once all the cameras have been interrogated.
+     */
+    @Getter
+    private final ExecutorService discoveryExecutor;
     private final Map<Integer, MotionConfig> motionConfigurations = new TreeMap<>();
     private MotionConfig defaultMotionConfig;
 
@@ -39,6 +61,19 @@ public class LightMotion implements Managed, EventSinkWithMotionConfigOracle {
         this.database = database;
         this.config = config;
 
+        AtomicInteger threadNumber = new AtomicInteger();
+        cameraScheduler = Executors.newScheduledThreadPool(config.getCameraThreads(), runnable -> {
+            Thread thread = new Thread(runnable, "Camera supervision "+threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger discoveryThreadNumber = new AtomicInteger();
+        discoveryExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "ONVIF discovery "+discoveryThreadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
         mkdir(config.getWorkingRoot(), "workingRoot");
         mkdir(config.getStateRoot(), "stateRoot");
         mkdir(config.getChunkRoot(), "chunkRoot");
@@ -60,7 +95,12 @@ public class LightMotion implements Managed, EventSinkWithMotionConfigOracle {
 
         configureFromDatabase();
 
-        snapshots = new ArrayBlockingQueue<>(cameraManagers.size()*2);
+        int workers = config.getMotionWorkers() > 0 ? config.getMotionWorkers()
+                : Math.min(Runtime.getRuntime().availableProcessors(), Math.max(1, cameraManagers.size()));
+        motionWorkers = new MotionWorkers(workers, config.getMaxStaleness());
+        MotionKernels.setMotionWorkers(workers);
+        frameRateController = new FrameRateController(motionWorkers, this::getRunningCameras, config);
+        snapshotPoller = new SnapshotPoller(this, cameraManagers.size());
     }
 
     public MotionConfig getMotionConfig(Camera camera) {
@@ -105,8 +145,13 @@ public class LightMotion implements Managed, EventSinkWithMotionConfigOracle {
                 } else {
                     try {
                         cameraManager.stop();
-                    } catch (InterruptedException e) {
-                        log.log(Level.WARNING, "Was interrupted while waiting for reconfigured camera manager to stop", e);
+                    } catch (InterruptedException | IOException e) {
+                        log.log(Level.WARNING, "Failed while waiting for reconfigured camera manager to stop", e);
+                    }
+                    SnapshotProcessingManager spm = cameraManager.getSnapshotProcessingManager();
+                    if (spm != null) {
+                        motionWorkers.unregister(spm);
+                        spm.close();
                     }
                     cameraManagers.put(camera.getId(), new CameraManager(this, camera));
                 }
@@ -122,55 +167,127 @@ public class LightMotion implements Managed, EventSinkWithMotionConfigOracle {
         }
     }
 
-    private void motionState(String s) {
-        motionThread.setName("Motion Detection ("+s+")");
-    }
-
     @Override
     public void start() throws Exception {
         if (cameraManagers.isEmpty()) {
             log.severe("No cameras configured, nothing started");
             return;
         }
-        motionThread = new Thread(() -> {
-            try {
-                startCameraThreads();
-                motionState("Watching");
-                while (keepRunning) {
-                    checkForMotion();
-                }
-            } catch (Throwable t) {
-                log.log(Level.SEVERE, "Failed in the motion detection thread, giving up and going home", t);
-            }
-        });
-        motionThread.setDaemon(true);
-        motionState("Starting");
-        motionThread.start();
+        motionWorkers.start();
+        startCameras();
+        cameraScheduler.scheduleWithFixedDelay(frameRateController::adjust, FrameRateController.CONTROL_INTERVAL,
+                FrameRateController.CONTROL_INTERVAL, TimeUnit.MILLISECONDS);
     }
 
-    private void checkForMotion() throws InterruptedException {
-        try {
-            snapshots.take().processSnapshot();
-        } catch (Exception e) {
-            log.log(Level.SEVERE, "Failed while processing snapshot, ignoring", e);
-        }
+    /**
+     * Assigns the camera to a motion worker, this must be done before its snapshots are offered
+     */
+    public void registerSnapshotProcessingManager(SnapshotProcessingManager spm) {
+        motionWorkers.register(spm);
     }
 
-    private void startCameraThreads() throws InterruptedException {
-        int spread = config.getPollInterval()/cameraManagers.size();
+    /**
+     * Hands a snapshot to the motion worker of its camera, this never blocks, if the worker hasn't got round to the
+     * previous snapshot of the camera yet, that one is replaced and released.
+     */
+    public void offerSnapshot(CameraSnapshot snapshot) {
+        motionWorkers.offer(snapshot);
+    }
 
+    /**
+     * @return The number of snapshots that were replaced by a newer one of the same camera before they were processed
+     */
+    public long getReplacedFrames() {
+        return motionWorkers.getReplacedFrames();
+    }
+
+    /**
+     * @return The number of snapshots that were never processed
+     */
+    public long getDroppedFrames() {
+        return motionWorkers.getDroppedFrames();
+    }
+
+    /**
+     * Starts all the cameras at once on the camera scheduler, the calls to the cameras happen on the discovery
+     * executor, so a slow or unreachable camera doesn't hold up the others, see CameraManager.start
+     */
+    private void startCameras() {
         for (CameraManager cameraManager : cameraManagers.values()) {
             log.info("Starting camera manager "+cameraManager.getCamera().getName()+" with ONVIF address "+cameraManager.getCamera().getAddress());
-            cameraManager.start();
-            Thread.sleep(spread);
+            cameraScheduler.execute(cameraManager::start);
         }
-
-        motionState("Started");
     }
 
     @Override
     public void stop() throws Exception {
+        snapshotPoller.stop();
+        synchronized (cameraManagers) {
+            for (CameraManager cameraManager : cameraManagers.values()) {
+                cameraManager.stop();
+            }
+        }
+        cameraScheduler.shutdownNow();
+        discoveryExecutor.shutdownNow();
+        motionWorkers.stop();
+    }
 
+    /**
+     * @return The snapshot processing of the cameras that have been started
+     */
+    private List<SnapshotProcessingManager> getRunningCameras() {
+        List<SnapshotProcessingManager> running = new ArrayList<>();
+        synchronized (cameraManagers) {
+            for (CameraManager cameraManager : cameraManagers.values()) {
+                SnapshotProcessingManager spm = cameraManager.getSnapshotProcessingManager();
+                if (spm != null) {
+                    running.add(spm);
+                }
+            }
+        }
+        return running;
+    }
+
+    /**
+     * @return The number of pixel buffers allocated by the frame pools of all cameras, in the steady state this
+     * should stay flat, if it keeps growing something isn't handing its buffers back.
+     */
+    public long getFrameBufferAllocations() {
+        long allocations = 0;
+        synchronized (cameraManagers) {
+            for (CameraManager cameraManager : cameraManagers.values()) {
+                SnapshotProcessingManager spm = cameraManager.getSnapshotProcessingManager();
+                if (spm != null) {
+                    allocations += spm.getFramePool().getAllocations();
+                }
+            }
+        }
+        return allocations;
+    }
+
+    /**
+     * @return The number of debug composites of all cameras that were dropped because the encoder was busy
+     */
+    public long getDebugCapturesDropped() {
+        long dropped = 0;
+        synchronized (cameraManagers) {
+            for (CameraManager cameraManager : cameraManagers.values()) {
+                SnapshotProcessingManager spm = cameraManager.getSnapshotProcessingManager();
+                if (spm != null) {
+                    dropped += spm.getDebugCapture().getDropped().get();
+                }
+            }
+        }
+        return dropped;
+    }
+
+    /**
+     * @return The manager of the camera with the given id, or null if there is no such camera
+     */
+    public CameraManager getCameraManager(long cameraId) {
+        synchronized (cameraManagers) {
+            return cameraManagers.get(cameraId);
+        }
     }
 
     public File getFfmpeg() {
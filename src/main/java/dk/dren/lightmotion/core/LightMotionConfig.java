@@ -25,12 +25,79 @@ public class LightMotionConfig {
     private List<CameraConfig> cameras;
 
     /**
-     * The minimum interval between polling of jpeg snapshots from each camera in milliseconds, this is not used if
+     * The interval between polling of jpeg snapshots from each camera in milliseconds, this is not used if
      * lowres streaming is used.
      */
     @JsonProperty
     private Integer pollInterval = 2000;
 
+    /**
+     * The number of threads shared by all cameras for polling jpeg snapshots, the polls are mostly waiting for the
+     * network, so a couple of threads will serve many cameras.
+     */
+    @JsonProperty
+    private int snapshotPollThreads = 2;
+
+    /**
+     * The number of threads shared by all cameras for supervising the ffmpeg processes and reading their output,
+     * the work is done in short non-blocking tasks, so the thread count stays the same as cameras are added.
+     */
+    @JsonProperty
+    private int cameraThreads = 2;
+
+    /**
+     * The number of threads running motion detection, each camera is handled by one of them, 0 means one per core,
+     * but never more than the number of cameras.
+     */
+    @JsonProperty
+    private int motionWorkers = 0;
+
+    /**
+     * The motion workers process the frames of cameras with an open motion event first, but a frame from a quiet
+     * camera never waits longer than this many milliseconds because of that.
+     */
+    @JsonProperty
+    private int maxStaleness = 2000;
+
+    /**
+     * The rate, in frames per second, at which quiet cameras are sampled for motion detection, as long as the motion
+     * workers keep up, see FrameRateController.
+     */
+    @JsonProperty
+    private double detectionFps = 1;
+
+    /**
+     * The rate at which a camera is sampled while it has an open motion event, the lowres ffmpeg delivers frames at
+     * this rate, polled jpeg snapshots are never fetched more often than pollInterval.
+     */
+    @JsonProperty
+    private double motionDetectionFps = 5;
+
+    /**
+     * The lowest rate quiet cameras are slowed down to when the motion workers are overloaded.
+     */
+    @JsonProperty
+    private double minDetectionFps = 0.25;
+
+    /**
+     * How the frames from the lowres stream are handed over from ffmpeg, PIPE reads raw frames from the stdout
+     * of ffmpeg, MAPPED_FILE parses the frames from workingRoot in place via a memory mapping, which is cheapest
+     * on a tmpfs, FILE reads each frame into the heap first.
+     *
+     * PIPE falls back to MAPPED_FILE for cameras that don't report the resolution of the lowres profile.
+     */
+    @JsonProperty
+    private LowresIngest lowresIngest = LowresIngest.PIPE;
+
+    /**
+     * If true then the lowres ffmpeg process converts the frames to grey and scales them down to the resolution
+     * used for motion detection, so only tiny luma frames are handed to the JVM.
+     *
+     * This does not affect cameras that deliver jpeg snapshots.
+     */
+    @JsonProperty
+    private boolean lowresGrey = false;
+
     /**
      * The directory to store temporary files in, each camera will record into this directory, there will be a lot
      * of sequential writing to a number of files in parallel, which might eat an SSD too quickly, so it's best to put
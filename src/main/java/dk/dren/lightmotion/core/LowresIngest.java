@@ -0,0 +1,22 @@
+package dk.dren.lightmotion.core;
+
+/**
+ * The ways the frames written to the working dir by the lowres ffmpeg process can be loaded
+ */
+public enum LowresIngest {
+    /**
+     * Read each file into a byte array on the heap before parsing it.
+     */
+    FILE,
+
+    /**
+     * Map each file into memory and parse it in place, this avoids copying the frame to the heap.
+     */
+    MAPPED_FILE,
+
+    /**
+     * Have ffmpeg write headerless rgb24 frames to its stdout and read them from the pipe, no files are created
+     * and no directory polling is needed, but the size of the frames must be known from the ONVIF profile.
+     */
+    PIPE,
+}
@@ -0,0 +1,360 @@
+package dk.dren.lightmotion.core;
+
+import dk.dren.lightmotion.core.snapshot.SnapshotProcessingManager;
+import lombok.extern.java.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * The threads that run the motion detection, each camera is pinned to one worker, which processes all its frames,
+ * so the state of the detectors of a camera is only ever touched by one thread at a time and needs no locking.
+ *
+ * Each camera has a SnapshotMailbox holding its newest unprocessed frame, a worker takes the frames from the
+ * mailboxes of its cameras round-robin, so under overload every camera gets its turn and is analysed on its
+ * freshest frame, while the stale ones are replaced and counted.
+ *
+ * Cameras with an open motion event come first, so the end of the event and the recording aren't held up by the
+ * frames of quiet cameras, unless a quiet camera has been waiting for longer than the max staleness, then the one
+ * that has waited the longest goes first.
+ *
+ * The time spent processing each camera is measured and every REBALANCE_INTERVAL the cameras are redistributed, the
+ * most expensive camera first to the least loaded worker, if that lowers the load of the busiest worker noticeably.
+ *
+ * A camera is only moved by the worker it's leaving, between two frames, so two workers never process the same
+ * camera at once, the mailbox goes with the camera, so no frames are lost by the move.
+ *
+ * A camera must be registered before its frames are offered and unregistered when it's stopped, its waiting frame is
+ * then dropped and its counters are kept in the totals, frames that still arrive for it afterwards are dropped too.
+ *
+ * The assignments are only changed while holding the lock on this, the map is concurrent so offer() can look them up
+ * without it.
+ */
+@Log
+public class MotionWorkers {
+    private static final long REBALANCE_INTERVAL = TimeUnit.MINUTES.toNanos(1);
+
+    /**
+     * A new distribution must lower the load of the busiest worker by at least this fraction to be worth a move
+     */
+    private static final double MIN_IMPROVEMENT = 0.2;
+
+    private final int workers;
+    private final long maxStalenessNanos;
+    private final Semaphore[] wakeUps;
+    private final List<Thread> threads = new ArrayList<>();
+    private final Map<SnapshotProcessingManager, Assignment> assignments = new ConcurrentHashMap<>();
+
+    /**
+     * The same assignments as an array, which is replaced rather than changed, so the workers can go round the array
+     * they picked up without allocating anything and without it changing under them
+     */
+    private volatile Assignment[] cameras = new Assignment[0];
+
+    /**
+     * The counters of the cameras that have been unregistered
+     */
+    private volatile long retiredNanos;
+    private volatile long retiredReplaced;
+    private volatile long retiredDropped;
+
+    /**
+     * Frames offered for cameras that aren't registered, typically ones that were already on their way when the
+     * camera was stopped
+     */
+    private final AtomicLong unregisteredDropped = new AtomicLong();
+    private volatile boolean keepRunning = true;
+    private int nextWorker;
+    private long nextRebalance = System.nanoTime() + REBALANCE_INTERVAL;
+
+    /**
+     * Where a camera is processed, the worker field is only changed by the worker that owns the camera, the others
+     * are only read by other threads
+     */
+    private static class Assignment {
+        final SnapshotProcessingManager spm;
+        final String name;
+        final SnapshotMailbox mailbox = new SnapshotMailbox();
+        volatile int worker;
+        volatile int requestedWorker;
+        volatile long nanos;
+        long nanosAtLastRebalance;
+
+        Assignment(SnapshotProcessingManager spm, int worker) {
+            this.spm = spm;
+            this.name = spm.getCamera().getName();
+            this.worker = worker;
+            this.requestedWorker = worker;
+        }
+    }
+
+    /**
+     * @param workers The number of threads
+     * @param maxStaleness The longest a quiet camera waits for cameras with motion, in milliseconds
+     */
+    public MotionWorkers(int workers, long maxStaleness) {
+        this.workers = workers;
+        maxStalenessNanos = TimeUnit.MILLISECONDS.toNanos(maxStaleness);
+        wakeUps = new Semaphore[workers];
+        for (int i=0;i<workers;i++) {
+            wakeUps[i] = new Semaphore(0);
+        }
+    }
+
+    public void start() {
+        for (int i=0;i<workers;i++) {
+            final int worker = i;
+            Thread thread = new Thread(() -> work(worker), "Motion Detection "+(worker+1));
+            thread.setDaemon(true);
+            threads.add(thread);
+            thread.start();
+        }
+        log.info("Started "+workers+" motion detection workers");
+    }
+
+    public void stop() {
+        keepRunning = false;
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+        for (Assignment assignment : cameras) {
+            assignment.mailbox.clear();
+        }
+    }
+
+    /**
+     * Puts the snapshot in the mailbox of its camera, replacing the frame waiting there, if any, a snapshot of a
+     * camera that isn't registered is released and counted as dropped.
+     */
+    public void offer(CameraSnapshot snapshot) {
+        Assignment assignment = assignments.get(snapshot.getSnapshotProcessingManager());
+        if (assignment == null) {
+            unregisteredDropped.incrementAndGet();
+            snapshot.release();
+            return;
+        }
+        assignment.mailbox.put(snapshot);
+        wakeUps[assignment.worker].release();
+    }
+
+    /**
+     * Assigns the camera to a worker, this must be done before its frames are offered
+     */
+    public synchronized void register(SnapshotProcessingManager spm) {
+        if (assignments.containsKey(spm)) {
+            return;
+        }
+        Assignment assignment = new Assignment(spm, nextWorker++ % workers);
+        Assignment[] grown = Arrays.copyOf(cameras, cameras.length + 1);
+        grown[cameras.length] = assignment;
+        cameras = grown;
+        assignments.put(spm, assignment);
+    }
+
+    /**
+     * Forgets the camera, any frames that arrive for it afterwards are dropped
+     */
+    public synchronized void unregister(SnapshotProcessingManager spm) {
+        Assignment assignment = assignments.remove(spm);
+        if (assignment == null) {
+            return;
+        }
+        List<Assignment> remaining = new ArrayList<>(Arrays.asList(cameras));
+        remaining.remove(assignment);
+        cameras = remaining.toArray(new Assignment[0]);
+
+        assignment.mailbox.clear();
+        retiredNanos += assignment.nanos;
+        retiredReplaced += assignment.mailbox.getReplaced();
+        retiredDropped += assignment.mailbox.getDropped();
+    }
+
+    /**
+     * @return The mailbox of the camera, which has the counters of replaced and dropped frames, or null if the
+     * camera isn't registered
+     */
+    public SnapshotMailbox getMailbox(SnapshotProcessingManager spm) {
+        Assignment assignment = assignments.get(spm);
+        return assignment == null ? null : assignment.mailbox;
+    }
+
+    /**
+     * @return The number of worker threads
+     */
+    public int getWorkers() {
+        return workers;
+    }
+
+    /**
+     * @return The total time spent processing frames by all the workers, in nanoseconds
+     */
+    public long getBusyNanos() {
+        return retiredNanos + Arrays.stream(cameras).mapToLong(a -> a.nanos).sum();
+    }
+
+    /**
+     * @return The total number of frames replaced by a newer one before they were processed
+     */
+    public long getReplacedFrames() {
+        return retiredReplaced + Arrays.stream(cameras).mapToLong(a -> a.mailbox.getReplaced()).sum();
+    }
+
+    /**
+     * @return The total number of frames that were never processed
+     */
+    public long getDroppedFrames() {
+        return retiredDropped + unregisteredDropped.get() + Arrays.stream(cameras).mapToLong(a -> a.mailbox.getDropped()).sum();
+    }
+
+    private void work(int worker) {
+        int next = 0;
+        while (keepRunning) {
+            try {
+                handOverMovedCameras(worker);
+                if (worker == 0 && System.nanoTime() > nextRebalance) {
+                    rebalance();
+                    nextRebalance = System.nanoTime() + REBALANCE_INTERVAL;
+                }
+
+                final Assignment[] cameras = this.cameras;
+                final int chosen = choose(cameras, worker, next, System.nanoTime());
+                Assignment assignment = chosen < 0 ? null : cameras[chosen];
+                CameraSnapshot snapshot = assignment == null ? null : assignment.mailbox.take();
+                if (snapshot != null) {
+                    next = (chosen + 1) % cameras.length;
+                }
+
+                if (snapshot == null) {
+                    // Wake up now and then, so moved cameras get handed over even when there are no frames
+                    wakeUps[worker].tryAcquire(1, TimeUnit.SECONDS);
+                    wakeUps[worker].drainPermits();
+                    continue;
+                }
+
+                long t0 = System.nanoTime();
+                try {
+                    snapshot.processSnapshot();
+                } finally {
+                    assignment.nanos += System.nanoTime() - t0;
+                }
+
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                log.log(Level.SEVERE, "Failed while processing snapshot, ignoring", e);
+            }
+        }
+    }
+
+    /**
+     * Goes round the cameras of the worker that have a frame waiting, starting after the one served last, the first
+     * one with motion wins, unless one has been waiting for longer than the max staleness.
+     *
+     * @return The index of the camera to process next, or -1 if none of the cameras have a frame waiting
+     */
+    private int choose(Assignment[] cameras, int worker, int next, long now) {
+        final int count = cameras.length;
+        int first = -1;
+        int firstWithMotion = -1;
+        int stalest = -1;
+        long stalestSince = now - maxStalenessNanos;
+        for (int i=0;i<count;i++) {
+            final int index = (next + i) % count;
+            final Assignment candidate = cameras[index];
+            if (candidate.worker != worker || !candidate.mailbox.isWaiting()) {
+                continue;
+            }
+            if (first < 0) {
+                first = index;
+            }
+            if (firstWithMotion < 0 && candidate.spm.isMotion()) {
+                firstWithMotion = index;
+            }
+            final long since = candidate.mailbox.getWaitingSince();
+            if (since - stalestSince < 0) {
+                stalest = index;
+                stalestSince = since;
+            }
+        }
+
+        if (stalest >= 0) {
+            return stalest;
+        }
+        return firstWithMotion >= 0 ? firstWithMotion : first;
+    }
+
+    private void handOverMovedCameras(int worker) {
+        for (Assignment assignment : assignments.values()) {
+            if (assignment.worker == worker && assignment.requestedWorker != worker) {
+                log.info("Moving "+assignment.name+" from motion worker "+(worker+1)+" to "+(assignment.requestedWorker+1));
+                assignment.worker = assignment.requestedWorker;
+                wakeUps[assignment.worker].release(); // There may be a frame waiting in the mailbox
+            }
+        }
+    }
+
+    /**
+     * Works out a new distribution of the cameras from the time spent on each since the last rebalance and asks for
+     * the moves, if it's enough of an improvement.
+     */
+    void rebalance() {
+        List<Assignment> cameras = Arrays.asList(this.cameras);
+        long[] costs = new long[cameras.size()];
+        long[] currentLoad = new long[workers];
+        for (int i=0;i<cameras.size();i++) {
+            Assignment assignment = cameras.get(i);
+            long nanos = assignment.nanos;
+            costs[i] = nanos - assignment.nanosAtLastRebalance;
+            assignment.nanosAtLastRebalance = nanos;
+            currentLoad[assignment.worker] += costs[i];
+        }
+
+        int[] proposal = distribute(costs, workers);
+        long[] proposedLoad = new long[workers];
+        for (int i=0;i<cameras.size();i++) {
+            proposedLoad[proposal[i]] += costs[i];
+        }
+
+        long currentMax = Arrays.stream(currentLoad).max().orElse(0);
+        long proposedMax = Arrays.stream(proposedLoad).max().orElse(0);
+        if (proposedMax < currentMax * (1 - MIN_IMPROVEMENT)) {
+            for (int i=0;i<cameras.size();i++) {
+                cameras.get(i).requestedWorker = proposal[i];
+            }
+        }
+    }
+
+    /**
+     * Assigns the most expensive camera first to the worker with the least load so far
+     *
+     * @return The worker for each of the costs
+     */
+    static int[] distribute(long[] costs, int workers) {
+        Integer[] order = new Integer[costs.length];
+        for (int i=0;i<order.length;i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(costs[b], costs[a]));
+
+        long[] load = new long[workers];
+        int[] result = new int[costs.length];
+        for (int camera : order) {
+            int leastLoaded = 0;
+            for (int worker=1;worker<workers;worker++) {
+                if (load[worker] < load[leastLoaded]) {
+                    leastLoaded = worker;
+                }
+            }
+            result[camera] = leastLoaded;
+            load[leastLoaded] += costs[camera];
+        }
+        return result;
+    }
+}
@@ -0,0 +1,114 @@
+package dk.dren.lightmotion.core;
+
+import lombok.extern.java.Log;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Keeps an external process, like ffmpeg, running and restarts it when it quits.
+ *
+ * The supervisor doesn't have a thread of its own waiting for the process, instead it checks the process now and then
+ * on the scheduler shared by all cameras, so the number of threads stays the same no matter how many cameras there are.
+ */
+@Log
+public class ProcessSupervisor {
+    /**
+     * How often the process is checked, in milliseconds, this is also the least time between two restarts.
+     */
+    private static final long CHECK_INTERVAL = 1000;
+
+    /**
+     * Starts the process, along with anything that needs to read its output
+     */
+    public interface Launcher {
+        Process launch() throws IOException;
+    }
+
+    private final String name;
+    private final ScheduledExecutorService scheduler;
+    private final Launcher launcher;
+    private ScheduledFuture<?> check;
+    private Process process;
+    private boolean keepRunning = true;
+
+    public ProcessSupervisor(String name, ScheduledExecutorService scheduler, Launcher launcher) {
+        this.name = name;
+        this.scheduler = scheduler;
+        this.launcher = launcher;
+    }
+
+    public synchronized void start() {
+        check = scheduler.scheduleWithFixedDelay(this::check, 0, CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Any exception must be caught here, as it would otherwise cancel the schedule.
+     */
+    private synchronized void check() {
+        try {
+            if (process != null) {
+                if (process.isAlive()) {
+                    return;
+                }
+                int err = process.exitValue();
+                log.info("Exit code from "+name+" was: "+err);
+                process = null;
+                if (err != 0) {
+                    return; // Don't burn all the CPU in case of an error, restart at the next check
+                }
+            }
+            if (keepRunning) {
+                process = launcher.launch();
+            }
+        } catch (Throwable e) {
+            log.log(Level.SEVERE, "Failed to start "+name+", trying again in "+CHECK_INTERVAL+" ms", e);
+        }
+    }
+
+    /**
+     * Stops restarting the process and kills it, nicely at first.
+     */
+    public void stop() throws IOException, InterruptedException {
+        Process running;
+        synchronized (this) {
+            keepRunning = false;
+            if (check != null) {
+                check.cancel(false);
+            }
+            running = process;
+        }
+
+        if (running != null && running.isAlive()) {
+            long pid = getPid(running);
+            killProcess(pid, "HUP"); // Ask nicely
+            if (!running.waitFor(5, TimeUnit.SECONDS)) {
+                killProcess(pid, "KILL");
+            }
+        }
+    }
+
+    private static long getPid(Process process) {
+        // TODO: Once Java 9 comes out we finally get Process.getPid() and we can get rid of this bullshit
+        try {
+            if (process.getClass().getName().equals("java.lang.UNIXProcess")) {
+                Field f = process.getClass().getDeclaredField("pid");
+                f.setAccessible(true);
+                return ((Integer)f.get(process)).longValue();
+            } else {
+                throw new RuntimeException("Unsupported process class: "+process.getClass().getName());
+            }
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void killProcess(long pid, String signal) throws InterruptedException, IOException {
+        ProcessBuilder killer = new ProcessBuilder("kill", "-"+signal, Long.toString(pid));
+        killer.inheritIO().start().waitFor();
+    }
+}
@@ -0,0 +1,130 @@
+package dk.dren.lightmotion.core;
+
+import dk.dren.lightmotion.core.snapshot.FramePool;
+import dk.dren.lightmotion.core.snapshot.SnapshotProcessingManager;
+import lombok.extern.java.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Reads fixed size rgb24 or gray frames from the stdout of ffmpeg and hands them to the motion workers as they
+ * arrive.
+ *
+ * Rather than blocking a thread per camera in a read, the reader wakes up every READ_INTERVAL on the shared scheduler
+ * and only reads what is already in the pipe, so it never holds on to a scheduler thread. A frame is larger than the
+ * pipe, so while a frame is partly read the reader wakes up every PARTIAL_READ_INTERVAL instead, to let ffmpeg
+ * write the rest of it without waiting long.
+ *
+ * Frames that the FrameRate of the camera doesn't want are read into the same buffer again, without being offered.
+ */
+@Log
+public class RawFrameReader implements Runnable {
+    private static final long READ_INTERVAL = 100;
+
+    /**
+     * The wake-up interval while a frame is partly read
+     */
+    private static final long PARTIAL_READ_INTERVAL = 2;
+
+    private final ScheduledExecutorService scheduler;
+    private final Process process;
+    private final InputStream frames;
+    private final String cameraName;
+    private final LightMotion lightMotion;
+    private final SnapshotProcessingManager spm;
+    private final int width;
+    private final int height;
+    private final boolean grey;
+    private final int frameSize;
+    private final FramePool pool;
+    private byte[] pixelBytes;
+    private int filled;
+    private String timeStamp;
+    private String imageName;
+
+    private RawFrameReader(ScheduledExecutorService scheduler, Process process, String cameraName, LightMotion lightMotion, SnapshotProcessingManager spm, int width, int height, boolean grey) {
+        this.scheduler = scheduler;
+        this.process = process;
+        this.frames = process.getInputStream();
+        this.cameraName = cameraName;
+        this.lightMotion = lightMotion;
+        this.spm = spm;
+        this.width = width;
+        this.height = height;
+        this.grey = grey;
+        frameSize = grey ? width*height : width*height*3;
+        pool = spm.getFramePool();
+    }
+
+    /**
+     * Starts reading the frames from the stdout of the process, until the process quits.
+     */
+    public static void start(ScheduledExecutorService scheduler, Process process, String cameraName, LightMotion lightMotion,
+                             SnapshotProcessingManager spm, int width, int height, boolean grey) {
+        RawFrameReader reader = new RawFrameReader(scheduler, process, cameraName, lightMotion, spm, width, height, grey);
+        scheduler.schedule(reader, READ_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Reads what's in the pipe and schedules the next wake-up, until ffmpeg quits.
+     */
+    @Override
+    public void run() {
+        try {
+            // Check for the exit first, the output left in the pipe is still available after the process is gone
+            boolean exited = !process.isAlive();
+            int available;
+            while ((available = frames.available()) > 0) {
+                if (pixelBytes == null) {
+                    pixelBytes = pool.acquire(frameSize);
+                }
+                int read = frames.read(pixelBytes, filled, Math.min(available, frameSize - filled));
+                if (read < 0) {
+                    exited = true;
+                    break;
+                }
+                filled += read;
+                if (filled == frameSize) {
+                    filled = 0;
+                    if (spm.getFrameRate().accept(System.currentTimeMillis())) {
+                        offerFrame();
+                    }
+                }
+            }
+            if (exited) {
+                finish(); // ffmpeg has quit, the supervisor will find out why
+            } else {
+                scheduler.schedule(this, filled > 0 ? PARTIAL_READ_INTERVAL : READ_INTERVAL, TimeUnit.MILLISECONDS);
+            }
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Failed while reading frames from ffmpeg for "+cameraName, e);
+            finish();
+        } catch (RejectedExecutionException e) {
+            finish(); // The scheduler has been shut down
+        }
+    }
+
+    private void offerFrame() {
+        // getTimeStamp returns the same instance within a second, so only build a new name when it changes
+        String now = CameraManager.getTimeStamp();
+        if (now != timeStamp) {
+            timeStamp = now;
+            imageName = cameraName+"-"+timeStamp;
+        }
+        lightMotion.offerSnapshot(new CameraSnapshotRawFrame(spm, imageName, width, height, grey, pixelBytes));
+        pixelBytes = null;
+    }
+
+    private void finish() {
+        if (pixelBytes != null) {
+            pool.release(pixelBytes); // A partial frame
+            pixelBytes = null;
+            filled = 0;
+        }
+    }
+}
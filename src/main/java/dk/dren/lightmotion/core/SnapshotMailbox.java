@@ -0,0 +1,93 @@
+package dk.dren.lightmotion.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Holds the newest unprocessed snapshot of one camera, a new snapshot replaces the one waiting, so when the motion
+ * detection is behind it always works on the freshest frame of every camera, rather than on a backlog.
+ */
+public class SnapshotMailbox {
+    private final AtomicReference<CameraSnapshot> slot = new AtomicReference<>();
+    private final AtomicLong replaced = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong processed = new AtomicLong();
+    private volatile long waitingSince;
+
+    /**
+     * Puts the snapshot in the mailbox, releasing the one waiting, if any
+     *
+     * @return true if the snapshot replaced one that hadn't been processed
+     */
+    public boolean put(CameraSnapshot snapshot) {
+        long now = System.nanoTime();
+        CameraSnapshot old = slot.getAndSet(snapshot);
+        if (old == null) {
+            waitingSince = now;
+        } else {
+            replaced.incrementAndGet();
+            dropped.incrementAndGet();
+            old.release();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return true if there's a snapshot waiting
+     */
+    public boolean isWaiting() {
+        return slot.get() != null;
+    }
+
+    /**
+     * @return The System.nanoTime() at which the mailbox was last filled, a replaced snapshot doesn't reset it, so
+     * this is how long the camera has been waiting for a worker
+     */
+    public long getWaitingSince() {
+        return waitingSince;
+    }
+
+    /**
+     * @return The waiting snapshot, or null if there is none, the mailbox is empty afterwards
+     */
+    public CameraSnapshot take() {
+        CameraSnapshot snapshot = slot.getAndSet(null);
+        if (snapshot != null) {
+            processed.incrementAndGet();
+        }
+        return snapshot;
+    }
+
+    /**
+     * Releases the waiting snapshot without processing it
+     */
+    public void clear() {
+        CameraSnapshot snapshot = slot.getAndSet(null);
+        if (snapshot != null) {
+            dropped.incrementAndGet();
+            snapshot.release();
+        }
+    }
+
+    /**
+     * @return The number of snapshots that were replaced by a newer one before they could be processed
+     */
+    public long getReplaced() {
+        return replaced.get();
+    }
+
+    /**
+     * @return The number of snapshots that were never processed, replaced or cleared
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return The number of snapshots taken out for processing
+     */
+    public long getProcessed() {
+        return processed.get();
+    }
+}
@@ -0,0 +1,148 @@
+package dk.dren.lightmotion.core;
+
+import dk.dren.lightmotion.core.snapshot.SnapshotProcessingManager;
+import lombok.extern.java.Log;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Polls jpeg snapshots from all the cameras that deliver snapshots rather than a lowres stream.
+ *
+ * All cameras share one http client, which keeps the connections to the cameras alive between polls, and a couple
+ * of threads that run the polls on a fixed-rate schedule, so the time spent fetching a snapshot doesn't make the
+ * next poll drift.
+ *
+ * Each camera is polled at its own phase within the poll interval, so the cameras don't all arrive at once.
+ */
+@Log
+public class SnapshotPoller {
+    /**
+     * The bodies are read into pooled buffers rounded up to a multiple of this, so snapshots of slightly different
+     * sizes end up reusing the same buffers.
+     */
+    private static final int BUFFER_GRANULARITY = 64*1024;
+
+    /**
+     * Bodies larger than this, or without a Content-Length, are read into a plain byte array instead.
+     */
+    private static final int MAX_POOLED_BODY = 16*1024*1024;
+
+    private final LightMotion lightMotion;
+    private final int pollInterval;
+    private final int phases;
+    private final long epoch = System.currentTimeMillis();
+    private final AtomicInteger nextPhase = new AtomicInteger();
+    private final CloseableHttpClient httpClient;
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * @param cameraCount The number of cameras expected, the poll interval is divided into this many phases
+     */
+    public SnapshotPoller(LightMotion lightMotion, int cameraCount) {
+        this.lightMotion = lightMotion;
+        pollInterval = lightMotion.getConfig().getPollInterval();
+        phases = Math.max(1, cameraCount);
+
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setDefaultMaxPerRoute(2);
+        connectionManager.setMaxTotal(phases*2);
+        // The polling threads are shared by all cameras, so a camera that stops answering must not hold on to one
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(pollInterval)
+                .setSocketTimeout(pollInterval)
+                .setConnectionRequestTimeout(pollInterval)
+                .build();
+        httpClient = HttpClients.custom().setConnectionManager(connectionManager).setDefaultRequestConfig(requestConfig).build();
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        scheduler = Executors.newScheduledThreadPool(lightMotion.getConfig().getSnapshotPollThreads(), runnable -> {
+            Thread thread = new Thread(runnable, "Polling snapshots "+threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts polling snapshots from the camera
+     *
+     * @return The future of the schedule, cancel it to stop polling the camera.
+     */
+    public ScheduledFuture<?> schedule(CameraManager cameraManager, String snapshotUri) {
+        long phase = (long)pollInterval * (nextPhase.getAndIncrement() % phases) / phases;
+        long sinceEpoch = (System.currentTimeMillis() - epoch) % pollInterval;
+        long initialDelay = (phase - sinceEpoch + pollInterval) % pollInterval;
+
+        log.info("Polling "+snapshotUri+" every "+pollInterval+" ms, starting in "+initialDelay+" ms");
+        return scheduler.scheduleAtFixedRate(() -> poll(cameraManager, snapshotUri), initialDelay, pollInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Fetches a snapshot from the camera and puts it in the mailbox of the camera for the motion worker to take care
+     * of, if the worker is behind the older snapshot waiting there is replaced, see SnapshotMailbox.
+     *
+     * Any exception must be caught here, as it would otherwise cancel the schedule.
+     */
+    private void poll(CameraManager cameraManager, String snapshotUri) {
+        SnapshotProcessingManager spm = cameraManager.getSnapshotProcessingManager();
+        if (!spm.getFrameRate().accept(System.currentTimeMillis())) {
+            return; // The camera is sampled less often than it's polled, while the motion workers are overloaded
+        }
+        HttpGet req = new HttpGet(snapshotUri);
+        try (CloseableHttpResponse response = httpClient.execute(req)) {
+            HttpEntity entity = response.getEntity();
+            if (response.getStatusLine().getStatusCode() != 200) {
+                log.severe("Got error response "+response.getStatusLine().getStatusCode()+" from "+snapshotUri);
+                EntityUtils.consume(entity); // Leaves the connection ready for the next request
+                return;
+            }
+
+            long contentLength = entity.getContentLength();
+            boolean pooled = contentLength >= 0 && contentLength <= MAX_POOLED_BODY;
+            byte[] imageBytes;
+            int length;
+            try (InputStream content = entity.getContent()) {
+                if (pooled) {
+                    length = (int)contentLength;
+                    int capacity = (length + BUFFER_GRANULARITY - 1) / BUFFER_GRANULARITY * BUFFER_GRANULARITY;
+                    imageBytes = spm.getFramePool().acquire(capacity);
+                    try {
+                        IOUtils.readFully(content, imageBytes, 0, length);
+                    } catch (IOException e) {
+                        spm.getFramePool().release(imageBytes);
+                        throw e;
+                    }
+                } else {
+                    imageBytes = IOUtils.toByteArray(content);
+                    length = imageBytes.length;
+                }
+            }
+
+            String imageName = cameraManager.getCamera().getName()+"-"+CameraManager.getTimeStamp();
+            CameraSnapshotByteArray snapshot = new CameraSnapshotByteArray(spm, imageName, imageBytes, length, pooled);
+            lightMotion.offerSnapshot(snapshot);
+
+        } catch (Exception e) {
+            log.warning("Failed while requesting "+snapshotUri+" "+e);
+        }
+    }
+
+    public void stop() throws IOException {
+        scheduler.shutdownNow();
+        httpClient.close();
+    }
+}
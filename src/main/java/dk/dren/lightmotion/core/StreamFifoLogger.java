@@ -5,57 +5,131 @@ import lombok.extern.java.Log;
 import org.apache.commons.collections4.queue.CircularFifoQueue;
 
 import java.io.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 
 /**
  * This class provides in-memory log-rotation for busy streams that don't really contain all that much interesting output
  *
- * Reads from a stream until there's an error.
+ * Reads from the output of a process until it quits.
  * Every once in a while the last n lines are written to the file.
  * Excessive lines are quietly dropped.
+ *
+ * All the loggers share one thread, which drains whatever is in the pipes every DRAIN_INTERVAL without blocking, so
+ * the two loggers of each ffmpeg process don't cost two threads each.
  */
 @RequiredArgsConstructor
 @Log
 public class StreamFifoLogger {
     private static final int DEFAULT_INTERVAL = 30000;
     private static final int DEFAULT_HISTORY = 150;
+
+    /**
+     * How often the streams are drained, in milliseconds, ffmpeg blocks if it fills the pipe before then, but it
+     * only writes a couple of lines per second.
+     */
+    private static final long DRAIN_INTERVAL = 200;
+
+    private static final ScheduledExecutorService DRAINER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Draining process output");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Process process;
     private final InputStream stream;
     private final File file;
     private final int interval;
     private final int history;
 
-    private Thread thread;
+    private ScheduledFuture<?> schedule;
     private CircularFifoQueue<String> fifo;
     private long nextWrite;
+    private final byte[] buffer = new byte[4096];
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+    private boolean lastWasCr;
 
-    public static StreamFifoLogger glom(InputStream stream, File file) {
-        return glom(stream, file, DEFAULT_INTERVAL, DEFAULT_HISTORY);
+    public static StreamFifoLogger glom(Process process, InputStream stream, File file) {
+        return glom(process, stream, file, DEFAULT_INTERVAL, DEFAULT_HISTORY);
     }
 
-    public static StreamFifoLogger glom(InputStream stream, File file, int interval, int history) {
-        StreamFifoLogger instance = new StreamFifoLogger(stream, file, interval, history);
+    public static StreamFifoLogger glom(Process process, InputStream stream, File file, int interval, int history) {
+        StreamFifoLogger instance = new StreamFifoLogger(process, stream, file, interval, history);
         instance.start();
         return instance;
     }
 
     private void start() {
         fifo = new CircularFifoQueue<>(history);
-        thread = new Thread(() -> {
-            try {
-                readForever();
-            } catch (Exception e) {
-                log.log(Level.INFO, "Caught exception, perhaps it's nothing", e);
-            }
-            try {
+        synchronized (this) {
+            schedule = DRAINER.scheduleWithFixedDelay(this::drain, 0, DRAIN_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Any exception must be caught here, as it would otherwise cancel the schedule.
+     */
+    private synchronized void drain() {
+        boolean done;
+        try {
+            // Check for the exit first, the output left in the pipe is still available after the process is gone
+            boolean exited = !process.isAlive();
+            done = readAvailable() || exited;
+        } catch (Exception e) {
+            log.log(Level.INFO, "Caught exception, perhaps it's nothing", e);
+            done = true;
+        }
+
+        try {
+            if (done) {
+                endLine();
+                schedule.cancel(false);
+                writeFile();
+            } else if (System.currentTimeMillis() > nextWrite) {
                 writeFile();
-            } catch (Exception e) {
-                log.log(Level.WARNING, "Caught exception, while writing the fifo to "+file, e);
             }
-        });
+        } catch (Exception e) {
+            log.log(Level.WARNING, "Caught exception, while writing the fifo to "+file, e);
+        }
+    }
+
+    /**
+     * Splits the bytes in the pipe into lines, like BufferedReader.readLine, a line ends with \n, \r or \r\n
+     *
+     * @return true if the end of the stream was reached
+     */
+    private boolean readAvailable() throws IOException {
+        int available;
+        while ((available = stream.available()) > 0) {
+            int read = stream.read(buffer, 0, Math.min(available, buffer.length));
+            if (read < 0) {
+                return true;
+            }
+            for (int i=0;i<read;i++) {
+                byte b = buffer[i];
+                if (b == '\n' && lastWasCr) {
+                    lastWasCr = false;
+                } else if (b == '\n' || b == '\r') {
+                    lastWasCr = b == '\r';
+                    fifo.add(line.toString());
+                    line.reset();
+                } else {
+                    lastWasCr = false;
+                    line.write(b);
+                }
+            }
+        }
+        return false;
+    }
 
-        thread.setName("Writing "+file);
-        thread.setDaemon(true);
-        thread.start();
+    private void endLine() {
+        if (line.size() > 0) {
+            fifo.add(line.toString());
+            line.reset();
+        }
     }
 
     private void writeFile() throws FileNotFoundException {
@@ -75,19 +149,4 @@ public class StreamFifoLogger {
             }
         }
     }
-
-    private void readForever() throws IOException {
-        try (BufferedReader br = new BufferedReader(new InputStreamReader(stream))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                synchronized (file) {
-                    fifo.add(line);
-                }
-
-                if (System.currentTimeMillis() > nextWrite) {
-                    writeFile();
-                }
-            }
-        }
-    }
 }
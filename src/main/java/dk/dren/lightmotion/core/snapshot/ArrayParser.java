@@ -3,20 +3,29 @@ package dk.dren.lightmotion.core.snapshot;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 
+import java.nio.ByteBuffer;
+
 /**
- * Parse through an array of bytes, one at a time, while collecting a String
+ * Parse through a buffer of bytes, one at a time, while collecting a String
+ *
+ * The buffer can be a plain heap array or a file mapped into memory, in both cases the bytes are read in place
+ * using absolute positions, so the position of the buffer itself is left alone.
  */
 @RequiredArgsConstructor
 @Getter
 public class ArrayParser {
-    final private byte[] bytes;
+    final private ByteBuffer bytes;
     private int pos = 0;
 
+    public ArrayParser(byte[] bytes) {
+        this(ByteBuffer.wrap(bytes));
+    }
+
     public String readLine() {
         StringBuilder buffy = new StringBuilder();
 
-        while (bytes[pos] != '\n' && pos < 100) {
-            buffy.append((char)bytes[pos]);
+        while (pos < 100 && bytes.get(pos) != '\n') {
+            buffy.append((char)bytes.get(pos));
             pos++;
         }
         pos++; // Skip the newline
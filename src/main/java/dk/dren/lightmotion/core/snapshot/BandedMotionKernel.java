@@ -0,0 +1,107 @@
+package dk.dren.lightmotion.core.snapshot;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Splits the detection pass into horizontal bands, aligned to the rows of the diff grid, and runs them in parallel
+ * on a shared ForkJoinPool, with the calling thread taking the first band itself.
+ *
+ * Each band updates its own lines of the average and its own rows of the diff grid, so the bands never touch the
+ * same memory and the result is identical to running the wrapped kernel over the whole image.
+ *
+ * Small images are passed straight to the wrapped kernel, as handing them out to other threads costs more than it
+ * saves.
+ *
+ * The tasks for the bands are kept and reused from frame to frame, so an instance must only be used by one thread
+ * at a time, which is the case for the kernel of a MotionDetector.
+ */
+public class BandedMotionKernel implements MotionKernel {
+    private final MotionKernel kernel;
+    private final ForkJoinPool pool;
+    private final int minSubPixelsPerBand;
+    private final Band[] tasks;
+
+    private FixedPointPixels average;
+    private BytePixels other;
+    private LineSpans spans;
+    private int decayOrder;
+    private int xpitch;
+    private int ypitch;
+    private int diffWidth;
+    private int[] diffSums;
+
+    /**
+     * One of the bands handed to the pool, the parameters of the pass are taken from the kernel
+     */
+    private class Band extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private int fromLine;
+        private int toLine;
+
+        @Override
+        protected void compute() {
+            kernel.detect(average, other, spans, decayOrder, xpitch, ypitch, diffWidth, fromLine, toLine, diffSums);
+        }
+    }
+
+    /**
+     * @param kernel The kernel that does the actual work, it must be safe to call from several threads at once
+     * @param pool The pool to run the bands in
+     * @param minSubPixelsPerBand The smallest band worth handing to another thread
+     */
+    public BandedMotionKernel(MotionKernel kernel, ForkJoinPool pool, int minSubPixelsPerBand) {
+        this.kernel = kernel;
+        this.pool = pool;
+        this.minSubPixelsPerBand = minSubPixelsPerBand;
+        tasks = new Band[pool.getParallelism()];
+        for (int i=0;i<tasks.length;i++) {
+            tasks[i] = new Band();
+        }
+    }
+
+    @Override
+    public void detect(FixedPointPixels average, BytePixels other, LineSpans spans, int decayOrder,
+                       int xpitch, int ypitch, int diffWidth, int fromLine, int toLine, int[] diffSums) {
+        final int inputSubWidth = average.getWidth() * (average.isMonochrome() ? 1 : 3);
+        final int diffRows = (toLine - fromLine + ypitch - 1) / ypitch;
+        final int bands = Math.min(Math.min(tasks.length + 1, diffRows),
+                (toLine - fromLine) * inputSubWidth / Math.max(1, minSubPixelsPerBand));
+
+        if (bands <= 1) {
+            kernel.detect(average, other, spans, decayOrder, xpitch, ypitch, diffWidth, fromLine, toLine, diffSums);
+            return;
+        }
+
+        this.average = average;
+        this.other = other;
+        this.spans = spans;
+        this.decayOrder = decayOrder;
+        this.xpitch = xpitch;
+        this.ypitch = ypitch;
+        this.diffWidth = diffWidth;
+        this.diffSums = diffSums;
+
+        for (int band = 1; band < bands; band++) {
+            Band task = tasks[band - 1];
+            task.reinitialize();
+            task.fromLine = fromLine + diffRows * band / bands * ypitch;
+            task.toLine = band == bands - 1 ? toLine : fromLine + diffRows * (band + 1) / bands * ypitch;
+            pool.execute(task);
+        }
+
+        kernel.detect(average, other, spans, decayOrder, xpitch, ypitch, diffWidth,
+                fromLine, fromLine + diffRows / bands * ypitch, diffSums);
+
+        for (int band = 1; band < bands; band++) {
+            tasks[band - 1].join();
+        }
+
+        // Don't hold on to the frames until the next pass
+        this.average = null;
+        this.other = null;
+        this.spans = null;
+        this.diffSums = null;
+    }
+}
@@ -1,10 +1,12 @@
 package dk.dren.lightmotion.core.snapshot;
 
+import lombok.Getter;
 import lombok.extern.java.Log;
 import org.roaringbitmap.RoaringBitmap;
 
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferByte;
+import java.util.Arrays;
 
 import static java.awt.image.BufferedImage.TYPE_3BYTE_BGR;
 import static java.awt.image.BufferedImage.TYPE_BYTE_BINARY;
@@ -19,6 +21,12 @@ public class BitPixels {
     private final int width;
     private final int height;
 
+    /**
+     * The unmasked pixels as runs per line
+     */
+    @Getter
+    private final LineSpans lineSpans;
+
     public BitPixels(BufferedImage bi) {
         if (bi.getType() != BufferedImage.TYPE_BYTE_GRAY) {
             throw new IllegalArgumentException("Cannot convert anything other than BYTE_BINARY images to bitpixels");
@@ -39,9 +47,31 @@ public class BitPixels {
             }
             */
         }
+
+        // Compile the mask into runs of unmasked pixels per line, so the motion detector can skip the masked runs
+        int[][] spans = new int[height][];
+        int[] runs = new int[width+1];
+        for (int y=0;y<height;y++) {
+            int runCount = 0;
+            int x = 0;
+            while (x < width) {
+                while (x < width && pixels[y*width+x] == 0) {
+                    x++;
+                }
+                if (x < width) {
+                    runs[runCount++] = x;
+                    while (x < width && pixels[y*width+x] != 0) {
+                        x++;
+                    }
+                    runs[runCount++] = x;
+                }
+            }
+            spans[y] = Arrays.copyOf(runs, runCount);
+        }
+        lineSpans = new LineSpans(spans);
     }
 
-    public boolean isSameSizeAs(FixedPointPixels image) {
+    public boolean isSameSizeAs(BytePixels image) {
         return image.getWidth()==width && image.getHeight()==height;
     }
 
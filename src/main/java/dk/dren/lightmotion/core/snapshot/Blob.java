@@ -0,0 +1,32 @@
+package dk.dren.lightmotion.core.snapshot;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * A connected group of diff pixels that are above the motion threshold, all coordinates are in diff pixels.
+ */
+@RequiredArgsConstructor
+@Getter
+public class Blob {
+    /**
+     * The number of diff pixels in the blob
+     */
+    private final int area;
+
+    /**
+     * The bounding box, all inclusive
+     */
+    private final int left;
+    private final int top;
+    private final int right;
+    private final int bottom;
+
+    private final double centroidX;
+    private final double centroidY;
+
+    @Override
+    public String toString() {
+        return area+" at "+left+","+top+"-"+right+","+bottom;
+    }
+}
@@ -0,0 +1,152 @@
+package dk.dren.lightmotion.core.snapshot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Finds the connected groups of diff pixels that are above the threshold, so a single noisy diff pixel can be told
+ * apart from an object moving through the frame.
+ *
+ * The labelling is done in a single pass over the diff: each hot pixel gets the label of its hot neighbours on the
+ * current and previous line (8-connected), labels that turn out to touch are joined via union-find and the area,
+ * bounding box and coordinate sums are kept on the root label, so there's no second pass to relabel the pixels.
+ *
+ * All the arrays are allocated up front for the size of the diff and reused for every frame.
+ */
+public class BlobExtractor {
+    private final int width;
+    private final int height;
+
+    private int[] previousLine;
+    private int[] currentLine;
+
+    private final int[] parent;
+    private final int[] area;
+    private final int[] left;
+    private final int[] top;
+    private final int[] right;
+    private final int[] bottom;
+    private final long[] sumX;
+    private final long[] sumY;
+
+    public BlobExtractor(int width, int height) {
+        this.width = width;
+        this.height = height;
+        previousLine = new int[width];
+        currentLine = new int[width];
+
+        // Label 0 is the background, there can never be more labels than pixels
+        int labels = width*height+1;
+        parent = new int[labels];
+        area = new int[labels];
+        left = new int[labels];
+        top = new int[labels];
+        right = new int[labels];
+        bottom = new int[labels];
+        sumX = new long[labels];
+        sumY = new long[labels];
+    }
+
+    /**
+     * @param diff The diff image, with the noise subtracted
+     * @param threshold The threshold in whole diff steps, see MotionConfig.motionThreshold
+     * @param minArea The smallest blob to report, in diff pixels
+     * @return The blobs of at least minArea pixels, largest first
+     */
+    public List<Blob> extract(FixedPointPixels diff, int threshold, int minArea) {
+        final short[] pixels = diff.getPixels();
+        final int fixedThreshold = threshold << FixedPointPixels.FRACTION_BITS;
+
+        Arrays.fill(previousLine, 0);
+        int labels = 0;
+        int pixel = 0;
+        for (int y=0;y<height;y++) {
+            for (int x=0;x<width;x++) {
+                if (pixels[pixel++] < fixedThreshold) {
+                    currentLine[x] = 0;
+                    continue;
+                }
+
+                int label = 0;
+                if (x > 0) {
+                    label = join(label, currentLine[x-1]);
+                    label = join(label, previousLine[x-1]);
+                }
+                label = join(label, previousLine[x]);
+                if (x < width-1) {
+                    label = join(label, previousLine[x+1]);
+                }
+
+                if (label == 0) {
+                    label = ++labels;
+                    parent[label] = label;
+                    area[label] = 0;
+                    left[label] = right[label] = x;
+                    top[label] = bottom[label] = y;
+                    sumX[label] = sumY[label] = 0;
+                }
+
+                currentLine[x] = label;
+                area[label]++;
+                left[label] = Math.min(left[label], x);
+                right[label] = Math.max(right[label], x);
+                bottom[label] = y;
+                sumX[label] += x;
+                sumY[label] += y;
+            }
+
+            int[] tmp = previousLine;
+            previousLine = currentLine;
+            currentLine = tmp;
+        }
+
+        List<Blob> blobs = new ArrayList<>();
+        for (int label=1;label<=labels;label++) {
+            if (parent[label] == label && area[label] >= minArea) {
+                blobs.add(new Blob(area[label], left[label], top[label], right[label], bottom[label],
+                        (double)sumX[label]/area[label], (double)sumY[label]/area[label]));
+            }
+        }
+        blobs.sort((a, b) -> Integer.compare(b.getArea(), a.getArea()));
+        return blobs;
+    }
+
+    private int find(int label) {
+        while (parent[label] != label) {
+            parent[label] = parent[parent[label]];
+            label = parent[label];
+        }
+        return label;
+    }
+
+    /**
+     * Joins the blob of a neighbour to the blob found so far for the current pixel
+     *
+     * @param label The root label of the current pixel so far, or 0 if it has none yet
+     * @param neighbour The label of the neighbour, 0 if it's not hot
+     * @return The root label of the current pixel
+     */
+    private int join(int label, int neighbour) {
+        if (neighbour == 0) {
+            return label;
+        }
+        int root = find(neighbour);
+        if (label == 0 || label == root) {
+            return root;
+        }
+
+        // Keep the older label as the root, it has the top most pixel
+        int keep = Math.min(label, root);
+        int merge = Math.max(label, root);
+        parent[merge] = keep;
+        area[keep] += area[merge];
+        left[keep] = Math.min(left[keep], left[merge]);
+        top[keep] = Math.min(top[keep], top[merge]);
+        right[keep] = Math.max(right[keep], right[merge]);
+        bottom[keep] = Math.max(bottom[keep], bottom[merge]);
+        sumX[keep] += sumX[merge];
+        sumY[keep] += sumY[merge];
+        return keep;
+    }
+}
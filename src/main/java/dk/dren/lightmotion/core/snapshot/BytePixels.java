@@ -0,0 +1,235 @@
+package dk.dren.lightmotion.core.snapshot;
+
+import lombok.Getter;
+import lombok.extern.java.Log;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import static java.awt.image.BufferedImage.TYPE_3BYTE_BGR;
+import static java.awt.image.BufferedImage.TYPE_BYTE_GRAY;
+
+/**
+ * An image consisting of unsigned 8 bit sub-pixels, this is the compact form that incoming frames are kept in,
+ * it uses exactly as much memory as the raw frame.
+ *
+ * The sub-pixel order is BGR, which is the same layout as a TYPE_3BYTE_BGR BufferedImage, a monochrome image
+ * has a single sub-pixel per pixel.
+ */
+@Log
+@Getter
+public class BytePixels {
+    private final byte[] pixels;
+    private final int width;
+    private final int height;
+    private final boolean monochrome;
+    private final String name;
+
+    public BytePixels(String name, int width, int height, boolean monochrome) {
+        this.name = name;
+        this.monochrome = monochrome;
+        this.width = width;
+        this.height = height;
+        this.pixels = new byte[monochrome ? width*height : width*height*3];
+    }
+
+    /**
+     * Wraps an existing buffer, typically one from a FramePool, without copying it.
+     */
+    public BytePixels(String name, int width, int height, boolean monochrome, byte[] pixels) {
+        if (pixels.length != (monochrome ? width*height : width*height*3)) {
+            throw new IllegalArgumentException("A buffer of "+pixels.length+" bytes cannot hold a "+width+"x"+height+(monochrome ? " grey" : " colour")+" image");
+        }
+        this.name = name;
+        this.monochrome = monochrome;
+        this.width = width;
+        this.height = height;
+        this.pixels = pixels;
+    }
+
+    /**
+     * Wraps the pixels of a TYPE_3BYTE_BGR or TYPE_BYTE_GRAY image without copying, other types are converted.
+     */
+    public BytePixels(String name, BufferedImage image) {
+        this.name = name;
+        width = image.getWidth();
+        height = image.getHeight();
+
+        if (image.getType() == BufferedImage.TYPE_BYTE_GRAY) {
+            monochrome = true;
+            pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+            return;
+        }
+
+        if (image.getType() != BufferedImage.TYPE_3BYTE_BGR) {
+            long t0 = System.currentTimeMillis();
+
+            BufferedImage converted = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
+            Graphics graphics = converted.getGraphics();
+            graphics.drawImage(image, 0, 0, null);
+            graphics.dispose();
+            image = converted;
+            long duration = System.currentTimeMillis()-t0;
+            log.warning("Converted image type "+image.getType()+" in "+duration+" ms");
+        }
+
+        monochrome = false;
+        pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+    }
+
+    public BytePixels(String name, BytePixels original) {
+        this.name = name;
+        this.pixels = original.getPixels().clone();
+        this.width = original.width;
+        this.height = original.height;
+        this.monochrome = original.monochrome;
+    }
+
+    public int getChannels() {
+        return monochrome ? 1 : 3;
+    }
+
+    public static BytePixels readFromAnyBytes(String name, byte[] imageBytes) throws IOException {
+        if (PPMParser.isPNM(ByteBuffer.wrap(imageBytes))) {
+            return PPMParser.readPNM(name, imageBytes); // Fast path, hopefully always taken
+        } else {
+            return new BytePixels(name, ImageIO.read(new ByteArrayInputStream(imageBytes))); // Slow, but widely compatible
+        }
+    }
+
+    /**
+     * Like readFromAnyBytes, but reads PPM images in place from the buffer, only other formats are copied to the heap
+     */
+    public static BytePixels readFromBuffer(String name, ByteBuffer imageBytes) throws IOException {
+        if (PPMParser.isPNM(imageBytes)) {
+            return PPMParser.readPNM(name, imageBytes);
+        } else {
+            byte[] copy = new byte[imageBytes.limit()];
+            imageBytes.duplicate().get(copy);
+            return readFromAnyBytes(name, copy);
+        }
+    }
+
+    /**
+     * Decodes an image, typically a jpeg snapshot, straight into a fraction of its resolution by letting the
+     * ImageIO reader skip all but the middle pixel of each divisor*divisor block and write the result
+     * directly in BGR or grey layout.
+     *
+     * This is much cheaper than decoding the full image and scaling it, but it samples rather than averages,
+     * so the result is noisier than what scale produces, the larger the divisor the noisier.
+     */
+    public static BytePixels readSubsampled(String name, ByteBuffer imageBytes, int divisor) throws IOException {
+        try (ImageInputStream iis = ImageIO.createImageInputStream(toInputStream(imageBytes))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+            if (!readers.hasNext()) {
+                throw new IOException("Cannot find an ImageIO reader for "+name);
+            }
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(iis, true, true);
+                int scaledWidth = reader.getWidth(0) / divisor;
+                int scaledHeight = reader.getHeight(0) / divisor;
+
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceRegion(new Rectangle(0, 0, scaledWidth*divisor, scaledHeight*divisor));
+                param.setSourceSubsampling(divisor, divisor, divisor/2, divisor/2);
+
+                // Pick a layout we can use without converting, if the reader can produce it
+                Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+                while (types.hasNext()) {
+                    ImageTypeSpecifier type = types.next();
+                    if (type.getBufferedImageType() == TYPE_3BYTE_BGR || type.getBufferedImageType() == TYPE_BYTE_GRAY) {
+                        param.setDestinationType(type);
+                        break;
+                    }
+                }
+
+                return new BytePixels(name+"_"+divisor, reader.read(0, param));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static InputStream toInputStream(ByteBuffer imageBytes) {
+        if (imageBytes.hasArray()) {
+            return new ByteArrayInputStream(imageBytes.array(), imageBytes.arrayOffset(), imageBytes.limit());
+        }
+        byte[] copy = new byte[imageBytes.limit()];
+        imageBytes.duplicate().get(copy);
+        return new ByteArrayInputStream(copy);
+    }
+
+    public static BytePixels read(File file) throws IOException {
+        return new BytePixels(file.getName(), ImageIO.read(file));
+    }
+
+    BufferedImage toBufferedImage() {
+        BufferedImage bi = new BufferedImage(width, height, monochrome ? TYPE_BYTE_GRAY : TYPE_3BYTE_BGR);
+        final byte[] outputPixels = ((DataBufferByte) bi.getRaster().getDataBuffer()).getData();
+        System.arraycopy(pixels, 0, outputPixels, 0, pixels.length);
+        return bi;
+    }
+
+    public void write(File file) throws IOException {
+        ImageIO.write(toBufferedImage(), "png", file);
+    }
+
+    public BytePixels clone(String name) {
+        return new BytePixels(name, this);
+    }
+
+    /**
+     * Scales the image down by averaging divisor*divisor blocks of pixels, any pixels left over at the right or
+     * bottom edge are ignored.
+     *
+     * The lines of each block are first added up column by column, which is a plain loop that the JIT can
+     * vectorise, then the columns are summed into blocks.
+     */
+    public BytePixels scale(int divisor) {
+        final int channels = getChannels();
+        BytePixels img = new BytePixels(name+"_"+divisor, width/divisor, height/divisor, monochrome);
+        final int inputSubWidth = width*channels;
+        final int usedSubWidth = img.width*divisor*channels;
+        final int inputPixelsPerOutputPixel = divisor*divisor;
+        final int[] columns = new int[usedSubWidth];
+
+        int output = 0;
+        for (int blockY=0;blockY<img.height;blockY++) {
+            Arrays.fill(columns, 0);
+            for (int y=blockY*divisor;y<(blockY+1)*divisor;y++) {
+                final int lineStart = y*inputSubWidth;
+                for (int x=0;x<usedSubWidth;x++) {
+                    columns[x] += pixels[lineStart+x] & 0xff;
+                }
+            }
+
+            for (int blockX=0;blockX<img.width;blockX++) {
+                final int firstColumn = blockX*divisor*channels;
+                for (int c=0;c<channels;c++) {
+                    int sum = 0;
+                    for (int column=firstColumn+c;column<firstColumn+divisor*channels;column+=channels) {
+                        sum += columns[column];
+                    }
+                    img.pixels[output++] = (byte)(sum / inputPixelsPerOutputPixel);
+                }
+            }
+        }
+
+        return img;
+    }
+}
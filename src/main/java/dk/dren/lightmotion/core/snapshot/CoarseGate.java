@@ -0,0 +1,263 @@
+package dk.dren.lightmotion.core.snapshot;
+
+import lombok.Getter;
+
+import java.util.Arrays;
+
+/**
+ * The first level of the motion detector, it keeps its own background of the detection image at 1/TILE of the
+ * resolution, which is 1/32 of the camera resolution, and decides which tiles are worth running the fine grained
+ * pass on.
+ *
+ * A tile is active when the mean of any channel differs from the coarse background by more than a fraction of the
+ * motion threshold, it then stays active for a few frames, so a slow moving object isn't lost between frames.
+ *
+ * The tile sums also feed the SceneStatistics of the frame, which is how the whole-frame detectors get their input
+ * without another pass over the pixels.
+ *
+ * The fine grained average of quiet tiles isn't touched by the kernel, instead the skipped frames are counted and
+ * once a tile has been skipped for CATCH_UP_INTERVAL frames the missed updates are applied in one go from the
+ * current, quiet, frame, so the fine background never falls more than that many frames behind. When a tile wakes up
+ * before that, the missed updates are applied from the previous frame, the last quiet one, before the kernel sees
+ * the tile, so the fine background is up to date at the moment the motion starts.
+ *
+ * The runs and lines handed out are reused from frame to frame, so the gate doesn't allocate anything once it's warm.
+ */
+public class CoarseGate {
+    /**
+     * The size of a tile in detection pixels, it must be a multiple of the size of a diff pixel.
+     */
+    public static final int TILE = 4;
+
+    /**
+     * A tile is active when it differs by more than the motion threshold shifted right by this many bits, the
+     * means of a tile hide small objects, so this has to be a lot lower than the threshold itself.
+     */
+    private static final int THRESHOLD_FRACTION_BITS = 2;
+
+    /**
+     * The number of frames a tile stays active after it last crossed the threshold
+     */
+    private static final int HOLD_FRAMES = 4;
+
+    /**
+     * The number of frames a quiet tile may be skipped before its fine average is caught up
+     */
+    static final int CATCH_UP_INTERVAL = 16;
+
+    private final int width;
+    private final int height;
+    private final int channels;
+    private final int tilesX;
+    private final int tilesY;
+    private final short[] background;
+    private final int[] sums;
+    private final int[] hold;
+    private final int[] skipped;
+    private final int[][] activeRuns;
+    private final int[] activeRunLengths;
+    private final int[][] maskedLines;
+    private final LineSpans lines;
+    private final byte[] previous;
+    private boolean hasPrevious;
+
+    /**
+     * The number of tiles that were active in the last frame
+     */
+    @Getter
+    private int activeTiles;
+
+    /**
+     * The whole-frame statistics of the last frame
+     */
+    @Getter
+    private final SceneStatistics scene = new SceneStatistics();
+
+    /**
+     * Starts out with the background taken from the first image and every tile active.
+     */
+    public CoarseGate(BytePixels first) {
+        width = first.getWidth();
+        height = first.getHeight();
+        channels = first.getChannels();
+        tilesX = (width + TILE - 1) / TILE;
+        tilesY = (height + TILE - 1) / TILE;
+        background = new short[tilesX*tilesY*channels];
+        sums = new int[background.length];
+        hold = new int[tilesX*tilesY];
+        skipped = new int[tilesX*tilesY];
+        activeRuns = new int[tilesY][tilesX+1];
+        activeRunLengths = new int[tilesY];
+        maskedLines = new int[height][];
+        lines = new LineSpans(height);
+        previous = new byte[first.getPixels().length];
+
+        sumTiles(first);
+        for (int tile=0;tile<hold.length;tile++) {
+            int count = tilePixelCount(tile);
+            for (int c=0;c<channels;c++) {
+                background[tile*channels+c] = (short)((sums[tile*channels+c] << FixedPointPixels.FRACTION_BITS) / count);
+            }
+        }
+        Arrays.fill(hold, HOLD_FRAMES);
+    }
+
+    public boolean isSameGeometry(BytePixels image) {
+        return image.getWidth() == width && image.getHeight() == height && image.getChannels() == channels;
+    }
+
+    private void sumTiles(BytePixels image) {
+        Arrays.fill(sums, 0);
+        final byte[] pixels = image.getPixels();
+        int input = 0;
+        for (int y=0;y<height;y++) {
+            final int firstSumInLine = (y/TILE)*tilesX*channels;
+            for (int x=0;x<width;x++) {
+                final int sum = firstSumInLine + (x/TILE)*channels;
+                for (int c=0;c<channels;c++) {
+                    sums[sum+c] += pixels[input++] & 0xff;
+                }
+            }
+        }
+    }
+
+    private int tilePixelCount(int tile) {
+        int tileX = tile % tilesX;
+        int tileY = tile / tilesX;
+        return Math.min(TILE, width - tileX*TILE) * Math.min(TILE, height - tileY*TILE);
+    }
+
+    /**
+     * Compares the image with the coarse background, updates the background and works out which tiles are active.
+     *
+     * @param mask The unmasked pixels, or null if there's no mask
+     * @param threshold The motion threshold, see MotionConfig
+     * @param decayOrder The decay of the background, the same as for the fine average
+     * @return The pixels of the active tiles that aren't masked, the same instance is reused by the next call
+     */
+    public LineSpans update(BytePixels image, LineSpans mask, int threshold, int decayOrder) {
+        sumTiles(image);
+
+        final int coarseThreshold = Math.max(1, threshold >> THRESHOLD_FRACTION_BITS) << FixedPointPixels.FRACTION_BITS;
+        // The scene statistics count the tiles that changed by the whole threshold, so an exposure adjustment by the
+        // camera doesn't look like the whole scene changing
+        final int sceneThreshold = threshold << FixedPointPixels.FRACTION_BITS;
+        activeTiles = 0;
+        scene.clear();
+        for (int tile=0;tile<hold.length;tile++) {
+            final int count = tilePixelCount(tile);
+            int maxDiff = 0;
+            int tileSum = 0;
+            for (int c=0;c<channels;c++) {
+                final int i = tile*channels+c;
+                final int diff = (sums[i] << FixedPointPixels.FRACTION_BITS) / count - background[i];
+                background[i] += diff >> decayOrder;
+                maxDiff = Math.max(maxDiff, Math.abs(diff));
+                tileSum += sums[i];
+            }
+
+            scene.addTile(tileSum, count, channels, maxDiff >= sceneThreshold);
+            if (maxDiff >= coarseThreshold) {
+                hold[tile] = HOLD_FRAMES;
+            } else if (hold[tile] > 0) {
+                hold[tile]--;
+            }
+
+            if (hold[tile] > 0) {
+                activeTiles++; // Any updates it has missed are applied by catchUp before the kernel runs
+            } else {
+                skipped[tile]++;
+            }
+        }
+
+        // Merge the neighbouring active tiles of each row of tiles into runs
+        for (int tileY=0;tileY<tilesY;tileY++) {
+            final int[] runs = activeRuns[tileY];
+            int runCount = 0;
+            int tileX = 0;
+            while (tileX < tilesX) {
+                while (tileX < tilesX && hold[tileY*tilesX+tileX] == 0) {
+                    tileX++;
+                }
+                if (tileX < tilesX) {
+                    runs[runCount++] = tileX*TILE;
+                    while (tileX < tilesX && hold[tileY*tilesX+tileX] > 0) {
+                        tileX++;
+                    }
+                    runs[runCount++] = Math.min(width, tileX*TILE);
+                }
+            }
+            activeRunLengths[tileY] = runCount;
+        }
+
+        for (int y=0;y<height;y++) {
+            final int[] active = activeRuns[y/TILE];
+            final int activeLength = activeRunLengths[y/TILE];
+            if (mask == null) {
+                lines.setLine(y, active, activeLength);
+            } else {
+                final int maskLength = mask.getLength(y);
+                if (maskedLines[y] == null || maskedLines[y].length < activeLength + maskLength) {
+                    maskedLines[y] = new int[tilesX + 1 + maskLength]; // Only when a new mask has more runs
+                }
+                lines.setLine(y, maskedLines[y], LineSpans.intersect(active, activeLength, mask.getSpans(y), maskLength, maskedLines[y]));
+            }
+        }
+        lines.updateBounds();
+        return lines;
+    }
+
+    /**
+     * Applies the updates the fine average has missed, for the tiles that have been quiet for CATCH_UP_INTERVAL
+     * frames using the current frame, which is as good as the skipped ones, as nothing happened in those tiles, and
+     * for the tiles that have just woken up using the previous frame, which was the last quiet one.
+     *
+     * This must be called after update and before the kernel, with the same image.
+     */
+    public void catchUp(FixedPointPixels average, BytePixels image, int decayOrder) {
+        final short[] averagePixels = average.getPixels();
+        final byte[] pixels = image.getPixels();
+
+        for (int tile=0;tile<skipped.length;tile++) {
+            final int updates = skipped[tile];
+            if (updates == 0) {
+                continue;
+            }
+            if (hold[tile] > 0) {
+                applyUpdates(averagePixels, hasPrevious ? previous : pixels, tile, updates, decayOrder);
+                skipped[tile] = 0;
+            } else if (updates >= CATCH_UP_INTERVAL) {
+                applyUpdates(averagePixels, pixels, tile, updates, decayOrder);
+                skipped[tile] = 0;
+            }
+        }
+
+        System.arraycopy(pixels, 0, previous, 0, Math.min(pixels.length, previous.length));
+        hasPrevious = true;
+    }
+
+    private void applyUpdates(short[] averagePixels, byte[] pixels, int tile, int updates, int decayOrder) {
+        final int subWidth = width*channels;
+        final int tileX = tile % tilesX;
+        final int tileY = tile / tilesX;
+        final int fromX = tileX*TILE*channels;
+        final int toX = Math.min(width, (tileX+1)*TILE)*channels;
+        for (int y=tileY*TILE;y<Math.min(height, (tileY+1)*TILE);y++) {
+            for (int i=y*subWidth+fromX;i<y*subWidth+toX;i++) {
+                final int target = (pixels[i] & 0xff) << FixedPointPixels.FRACTION_BITS;
+                int value = averagePixels[i];
+                for (int update=0;update<updates;update++) {
+                    value += (target - value) >> decayOrder;
+                }
+                averagePixels[i] = (short)value;
+            }
+        }
+    }
+
+    /**
+     * @return true if the tile holding the detection pixel was active in the last frame
+     */
+    public boolean isActive(int x, int y) {
+        return hold[(y/TILE)*tilesX + x/TILE] > 0;
+    }
+}
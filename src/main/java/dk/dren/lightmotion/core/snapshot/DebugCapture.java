@@ -0,0 +1,226 @@
+package dk.dren.lightmotion.core.snapshot;
+
+import lombok.Getter;
+import lombok.extern.java.Log;
+import org.apache.commons.io.FileUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * Captures debug composites of the motion detector, the average, the frame, the diff and the noise in a 2x2 grid,
+ * with the hottest diff pixel and the blobs marked.
+ *
+ * The motion thread only copies the buffers, which are small at the detection resolution, the composite is drawn
+ * and PNG encoded by a single background thread with a short queue, if it falls behind captures are dropped rather
+ * than holding up motion detection.
+ *
+ * The last few composites of each camera are kept in memory, where the web UI can fetch them, and they are also
+ * written to -Ddebug.dir if it's set.
+ *
+ * Which frames to capture is set by -Ddebug.sample, "motion" captures only frames with motion, a number n captures
+ * every nth frame, capturing is off unless either that or -Ddebug.dir is given, in which case every frame is captured.
+ * -Ddebug.ring sets the number of composites kept in memory.
+ */
+@Log
+public class DebugCapture {
+    public static final String SAMPLE_PROPERTY = "debug.sample";
+    public static final String RING_PROPERTY = "debug.ring";
+    public static final String DIR_PROPERTY = "debug.dir";
+
+    /**
+     * The quadrants of the composite are scaled up by this, so the detection images are big enough to look at
+     */
+    private static final int SCALE = MotionDetector.DETECTION_DOWNSCALE/2;
+
+    private static final ThreadPoolExecutor ENCODER = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(4), runnable -> {
+                Thread thread = new Thread(runnable, "Encoding debug frames");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    private final String cameraName;
+    private final File debugDir;
+    private final boolean onlyMotion;
+    private final int interval;
+    private final int ringSize;
+    private final ArrayDeque<DebugFrame> ring = new ArrayDeque<>();
+    private long frames;
+    private long sequence;
+
+    /**
+     * The number of captures dropped because the encoder was busy
+     */
+    @Getter
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * @param debugDir The dir to write the composites to, or null to only keep them in memory
+     * @param onlyMotion Only capture the frames with motion
+     * @param interval Capture every interval frames, 0 to capture none
+     * @param ringSize The number of composites to keep in memory
+     */
+    public DebugCapture(String cameraName, File debugDir, boolean onlyMotion, int interval, int ringSize) {
+        this.cameraName = cameraName;
+        this.debugDir = debugDir;
+        this.onlyMotion = onlyMotion;
+        this.interval = interval;
+        this.ringSize = ringSize;
+    }
+
+    public static DebugCapture fromSystemProperties(String cameraName) {
+        String dir = System.getProperty(DIR_PROPERTY, "");
+        File debugDir = dir.isEmpty() ? null : new File(dir);
+        String sample = System.getProperty(SAMPLE_PROPERTY, debugDir == null ? "0" : "1");
+        int ringSize = Integer.getInteger(RING_PROPERTY, 20);
+
+        if (sample.equals("motion")) {
+            return new DebugCapture(cameraName, debugDir, true, 1, ringSize);
+        }
+        try {
+            return new DebugCapture(cameraName, debugDir, false, Integer.parseInt(sample), ringSize);
+        } catch (NumberFormatException e) {
+            log.warning("Unknown -D"+SAMPLE_PROPERTY+"="+sample+" use motion or a number, not capturing debug frames");
+            return new DebugCapture(cameraName, debugDir, false, 0, ringSize);
+        }
+    }
+
+    /**
+     * Decides if this frame should be captured, this must be called once for every frame
+     */
+    public boolean wants(boolean motion) {
+        if (interval <= 0) {
+            return false;
+        }
+        if (onlyMotion) {
+            return motion;
+        }
+        return frames++ % interval == 0;
+    }
+
+    /**
+     * Copies the buffers and hands them to the encoder, the caller may keep changing the buffers afterwards
+     *
+     * @return The key the composite can be fetched by, once it has been encoded
+     */
+    public String capture(String name, FixedPointPixels average, BytePixels image, FixedPointPixels diff, FixedPointPixels noise, MotionDetectionResult detected) {
+        final FixedPointPixels averageCopy = average.clone(average.getName());
+        final BytePixels imageCopy = new BytePixels(name, image.getWidth(), image.getHeight(), image.isMonochrome(),
+                Arrays.copyOf(image.getPixels(), image.getWidth()*image.getHeight()*image.getChannels()));
+        final FixedPointPixels diffCopy = diff.clone(diff.getName());
+        final FixedPointPixels noiseCopy = noise.clone(noise.getName());
+        final long timestamp = System.currentTimeMillis();
+        final long captured = sequence++;
+
+        try {
+            ENCODER.execute(() -> encode(name, captured, timestamp, averageCopy, imageCopy, diffCopy, noiseCopy, detected));
+        } catch (RejectedExecutionException e) {
+            dropped.incrementAndGet();
+        }
+        return name + "-" + captured;
+    }
+
+    private void encode(String name, long sequence, long timestamp, FixedPointPixels average, BytePixels image, FixedPointPixels diff, FixedPointPixels noise, MotionDetectionResult detected) {
+        try {
+            BufferedImage composite = compose(average, image, diff, noise, detected);
+            ByteArrayOutputStream png = new ByteArrayOutputStream();
+            ImageIO.write(composite, "png", png);
+            byte[] bytes = png.toByteArray();
+            DebugFrame frame = new DebugFrame(name, sequence, timestamp, detected.isMovementDetected(), bytes);
+
+            synchronized (ring) {
+                ring.addLast(frame);
+                while (ring.size() > ringSize) {
+                    ring.removeFirst();
+                }
+            }
+
+            if (debugDir != null) {
+                File debugFile = new File(debugDir, "debug-" + frame.getKey() + ".png");
+                FileUtils.writeByteArrayToFile(debugFile, bytes);
+            }
+        } catch (Exception e) {
+            log.log(Level.WARNING, "Failed to store debug frame "+name+" of "+cameraName, e);
+        }
+    }
+
+    private static BufferedImage compose(FixedPointPixels average, BytePixels image, FixedPointPixels diffImage, FixedPointPixels noise, MotionDetectionResult diff) {
+        final int width = image.getWidth()*SCALE;
+        final int height = image.getHeight()*SCALE;
+        BufferedImage debug = new BufferedImage(width*2, height*2, BufferedImage.TYPE_3BYTE_BGR);
+
+        BufferedImage ai = average.toBufferedImage();
+        BufferedImage ii = image.toBufferedImage();
+        BufferedImage di = diffImage.toBufferedImageWithGradient(diff.getThreshold());
+        BufferedImage ni = noise.toBufferedImageWithGradient(diff.getThreshold());
+
+        Graphics graphics = debug.getGraphics();
+        graphics.drawImage(ai, 0,     0,      width, height, null);
+        graphics.drawImage(ii, width, 0,      width, height, null);
+        graphics.drawImage(di, 0,     height, width, height, null);
+        graphics.drawImage(ni, width, height, width, height, null);
+        if (diff.isMovementDetected()) {
+            int xscale = width / diffImage.getWidth();
+            int yscale = height / diffImage.getHeight();
+            int x0 = width + xscale * diff.getMaxDiffX();
+            int y0 = yscale * diff.getMaxDiffY();
+
+            graphics.setColor(new Color(0xff, 0x00, 0x00));
+            graphics.drawLine(x0, y0, x0+xscale-1, y0+yscale-1);
+            graphics.drawLine(x0+xscale-1, y0, x0, y0+yscale-1);
+
+            graphics.setColor(new Color(0xff, 0x90, 0x00));
+            graphics.drawLine(x0, y0, x0+xscale-1, y0);
+            graphics.drawLine(x0+xscale-1, y0+yscale-1, x0+xscale-1, y0);
+            graphics.drawLine(x0+xscale-1, y0+yscale-1, x0, y0+yscale-1);
+            graphics.drawLine(x0, y0, x0, y0+yscale-1);
+
+            graphics.setColor(new Color(0x00, 0xff, 0x00));
+            for (Blob blob : diff.getBlobs()) {
+                graphics.drawRect(width + xscale * blob.getLeft(), yscale * blob.getTop(),
+                        xscale * (blob.getRight() - blob.getLeft() + 1) - 1, yscale * (blob.getBottom() - blob.getTop() + 1) - 1);
+            }
+        }
+
+        graphics.dispose();
+        return debug;
+    }
+
+    /**
+     * @return The composites in memory, oldest first
+     */
+    public List<DebugFrame> getFrames() {
+        synchronized (ring) {
+            return new ArrayList<>(ring);
+        }
+    }
+
+    /**
+     * @return The composite with the given key, or null if it's no longer in memory
+     */
+    public DebugFrame getFrame(String key) {
+        synchronized (ring) {
+            for (DebugFrame frame : ring) {
+                if (frame.getKey().equals(key)) {
+                    return frame;
+                }
+            }
+        }
+        return null;
+    }
+}
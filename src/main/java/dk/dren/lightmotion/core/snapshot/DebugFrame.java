@@ -0,0 +1,25 @@
+package dk.dren.lightmotion.core.snapshot;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * A debug composite kept in the DebugCapture ring, the frame names only have a resolution of a second, so the
+ * composites are told apart by the key, which includes the sequence number of the capture.
+ */
+@RequiredArgsConstructor
+@Getter
+public class DebugFrame {
+    private final String name;
+    private final long sequence;
+    private final long timestamp;
+    private final boolean motion;
+
+    @JsonIgnore
+    private final byte[] png;
+
+    public String getKey() {
+        return name + "-" + sequence;
+    }
+}
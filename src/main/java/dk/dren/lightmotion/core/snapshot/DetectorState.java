@@ -0,0 +1,115 @@
+package dk.dren.lightmotion.core.snapshot;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The learned state of a MotionDetector, which is stored regularly, so a restart can pick up where it left off
+ * rather than re-learning the background and reporting motion everywhere while doing so.
+ *
+ * The format is raw little-endian, a header of ints starting with MAGIC and VERSION, followed by the average, the
+ * noise mean and the noise variance, a file with a different version is rejected rather than misread.
+ *
+ * The file is written through a memory mapping of a temporary file, which is then moved over the old one, so a
+ * crash while writing leaves the previous state in place.
+ */
+@Getter
+@RequiredArgsConstructor
+public class DetectorState {
+    private static final int MAGIC = 0x53444d4c; // LMDS
+    private static final int VERSION = 1;
+    private static final int HEADER_INTS = 9;
+
+    private final FixedPointPixels average;
+    private final FixedPointPixels noise;
+    private final int[] noiseVariance;
+    private final boolean quiet;
+    private final int quietCount;
+
+    /**
+     * @return A copy that the detector can keep updating the original of, while the copy is written
+     */
+    public DetectorState copy() {
+        return new DetectorState(average.clone(average.getName()), noise.clone(noise.getName()), noiseVariance.clone(), quiet, quietCount);
+    }
+
+    public void write(File file) throws IOException {
+        final int size = HEADER_INTS*4 + average.getPixels().length*2 + noise.getPixels().length*2 + noiseVariance.length*4;
+        File tmp = new File(file.getParentFile(), file.getName()+".tmp");
+        try (FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putInt(average.getWidth());
+            buffer.putInt(average.getHeight());
+            buffer.putInt(average.isMonochrome() ? 1 : 0);
+            buffer.putInt(noise.getWidth());
+            buffer.putInt(noise.getHeight());
+            buffer.putInt(quiet ? 1 : 0);
+            buffer.putInt(quietCount);
+
+            buffer.asShortBuffer().put(average.getPixels());
+            buffer.position(buffer.position() + average.getPixels().length*2);
+            buffer.asShortBuffer().put(noise.getPixels());
+            buffer.position(buffer.position() + noise.getPixels().length*2);
+            buffer.asIntBuffer().put(noiseVariance);
+            buffer.force();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @param name The prefix of the names of the images, normally the name of the camera
+     */
+    public static DetectorState read(File file, String name) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.remaining() < HEADER_INTS*4 || buffer.getInt() != MAGIC) {
+                throw new IOException(file+" is not a detector state file");
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException(file+" is version "+version+", only version "+VERSION+" is supported");
+            }
+
+            int width = buffer.getInt();
+            int height = buffer.getInt();
+            boolean monochrome = buffer.getInt() != 0;
+            int noiseWidth = buffer.getInt();
+            int noiseHeight = buffer.getInt();
+            boolean quiet = buffer.getInt() != 0;
+            int quietCount = buffer.getInt();
+
+            // Check the size before allocating anything, so a damaged header can't ask for huge arrays
+            long expected = (long)width*height*(monochrome ? 1 : 3)*2 + (long)noiseWidth*noiseHeight*(2 + 4);
+            if (width < 0 || height < 0 || noiseWidth < 0 || noiseHeight < 0 || buffer.remaining() != expected) {
+                throw new IOException(file+" has the wrong size for a "+width+"x"+height+" state");
+            }
+
+            FixedPointPixels average = new FixedPointPixels(name+"-average", width, height, monochrome);
+            FixedPointPixels noise = new FixedPointPixels(name+"-noise", noiseWidth, noiseHeight, true);
+            int[] noiseVariance = new int[noiseWidth*noiseHeight];
+
+            buffer.asShortBuffer().get(average.getPixels());
+            buffer.position(buffer.position() + average.getPixels().length*2);
+            buffer.asShortBuffer().get(noise.getPixels());
+            buffer.position(buffer.position() + noise.getPixels().length*2);
+            buffer.asIntBuffer().get(noiseVariance);
+
+            return new DetectorState(average, noise, noiseVariance, quiet, quietCount);
+        }
+    }
+}
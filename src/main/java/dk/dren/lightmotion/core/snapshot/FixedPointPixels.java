@@ -4,10 +4,8 @@ import lombok.Getter;
 import lombok.extern.java.Log;
 
 import javax.imageio.ImageIO;
-import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferByte;
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 
@@ -15,59 +13,47 @@ import static java.awt.image.BufferedImage.TYPE_3BYTE_BGR;
 import static java.awt.image.BufferedImage.TYPE_BYTE_GRAY;
 
 /**
- * An image consisting of fixed-point sub-pixels.
+ * An image consisting of fixed-point sub-pixels, used for the long-lived state of the motion detector, like the
+ * moving average and the noise, where the fractional bits are needed to let small changes accumulate.
  *
  * This means that each sub-pixel is either red green or blue.
  *
- * each sub-pixel is an integer scaled by 1<<16.
+ * each sub-pixel is a 16 bit integer scaled by 1<<FRACTION_BITS, so 0..255 fits with room to spare.
  *
  * The sub-pixel order is BGR
  */
 @Log
 @Getter
 public class FixedPointPixels {
-    private final int[] pixels;
+    /**
+     * The number of fractional bits in each sub-pixel, 255 << 7 still fits in a signed short.
+     */
+    public static final int FRACTION_BITS = 7;
+
+    private final short[] pixels;
     private final int width;
     private final int height;
     private final boolean monochrome;
     private final String name;
 
-    public FixedPointPixels(String name, BufferedImage image) {
-        this.name = name;
-        width = image.getWidth();
-        height = image.getHeight();
-
-        if (image.getType() != BufferedImage.TYPE_3BYTE_BGR) {
-            long t0 = System.currentTimeMillis();
-
-            BufferedImage converted = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
-            Graphics graphics = converted.getGraphics();
-            graphics.drawImage(image, 0, 0, null);
-            graphics.dispose();
-            image = converted;
-            long duration = System.currentTimeMillis()-t0;
-            log.warning("Converted image type "+image.getType()+" in "+duration+" ms");
-        }
-
-        monochrome = false;
-
-        final byte[] inputPixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
-        pixels = new int[inputPixels.length]; // Note: 3 sub-pixels per input pixel
-
-        long t0 = System.nanoTime();
-        for (int i=0;i<inputPixels.length;i++) {
-            pixels[i] = ((int)(inputPixels[i]) & 0xff) << 16;
-        }
-        long duration = System.nanoTime()-t0;
-        log.fine("Converted "+pixels.length+" pixels in "+duration+" ns");
-    }
-
     public FixedPointPixels(String name, int width, int height, boolean monochrome) {
         this.name = name;
         this.monochrome = monochrome;
         this.width = width;
         this.height = height;
-        this.pixels = new int[monochrome ? width*height : width*height*3];
+        this.pixels = new short[monochrome ? width*height : width*height*3];
+    }
+
+    /**
+     * Creates a fixed-point copy of an 8 bit image
+     */
+    public FixedPointPixels(String name, BytePixels image) {
+        this(name, image.getWidth(), image.getHeight(), image.isMonochrome());
+
+        final byte[] inputPixels = image.getPixels();
+        for (int i=0;i<inputPixels.length;i++) {
+            pixels[i] = (short)((inputPixels[i] & 0xff) << FRACTION_BITS);
+        }
     }
 
     public FixedPointPixels(String name, FixedPointPixels original) {
@@ -78,20 +64,12 @@ public class FixedPointPixels {
         this.monochrome = original.monochrome;
     }
 
-    public static FixedPointPixels readFromAnyBytes(String name, byte[] imageBytes) throws IOException {
-        if (imageBytes[0] == 'P' && imageBytes[1] == '6') {
-            return PPMParser.readPPM6(name, imageBytes); // Fast path, hopefully always taken
-        } else {
-            return new FixedPointPixels(name, ImageIO.read(new ByteArrayInputStream(imageBytes))); // Slow, but widely compatible
-        }
-    }
-
-    public long diffSum(FixedPointPixels other) {
+    public long diffSum(BytePixels other) {
 
-        int[] otherPixels = other.getPixels();
+        byte[] otherPixels = other.getPixels();
         long result = 0;
         for (int i=0;i<pixels.length;i++) {
-            result += Math.abs(this.pixels[i]- otherPixels[i]) >> 16;
+            result += Math.abs(((otherPixels[i] & 0xff) << FRACTION_BITS) - this.pixels[i]) >> FRACTION_BITS;
         }
 
         return result / pixels.length;
@@ -105,19 +83,19 @@ public class FixedPointPixels {
      * @param decayOrder the number of bits to shift the diff when updating average.
      * @return The average difference across all pixels in the image
      */
-    public long diffAndUpdate(FixedPointPixels other, int decayOrder) {
+    public long diffAndUpdate(BytePixels other, int decayOrder) {
 
-        int[] otherPixels = other.getPixels();
+        byte[] otherPixels = other.getPixels();
         long result = 0;
         for (int i=0;i<pixels.length;i++) {
-            int diff = otherPixels[i]-this.pixels[i];
+            int diff = ((otherPixels[i] & 0xff) << FRACTION_BITS) - this.pixels[i];
 
             result += Math.abs(diff);
 
             this.pixels[i] += diff >> decayOrder;
         }
 
-        return (result / pixels.length) >> 16;
+        return (result / pixels.length) >> FRACTION_BITS;
     }
 
     BufferedImage toBufferedImage() {
@@ -126,7 +104,7 @@ public class FixedPointPixels {
         final byte[] outputPixels = ((DataBufferByte) bi.getRaster().getDataBuffer()).getData();
 
         for (int i = 0; i < pixels.length; i++) {
-            outputPixels[i] = (byte) (pixels[i] >> 16);
+            outputPixels[i] = (byte) (pixels[i] >> FRACTION_BITS);
         }
         return bi;
     }
@@ -137,7 +115,7 @@ public class FixedPointPixels {
     }
 
     public static FixedPointPixels read(File file) throws IOException {
-        return new FixedPointPixels(file.getName(), ImageIO.read(file));
+        return new FixedPointPixels(file.getName(), BytePixels.read(file));
     }
 
     public BufferedImage toBufferedImageWithGradient(int threshold) {
@@ -152,7 +130,7 @@ public class FixedPointPixels {
         int outputPixel = 0;
         for (int i = 0; i < pixels.length; i++) {
 
-            int grey = pixels[i] >> 16;
+            int grey = Math.min(255, pixels[i] >> FRACTION_BITS);
 
             int red = 0;
             int green = 0;
@@ -174,39 +152,4 @@ public class FixedPointPixels {
     public FixedPointPixels clone(String name) {
         return new FixedPointPixels(name, this);
     }
-
-    public FixedPointPixels scale(int divisor) {
-        FixedPointPixels img = new FixedPointPixels(name+"_"+divisor, width/divisor, height/divisor, false);
-
-        int ytogo = divisor;
-        int linestart = 0;
-        int input = 0;
-        for (int y=0;y<height;y++) {
-            int xtogo = divisor;
-            int output = linestart;
-            for (int x = 0; x< this.width; x++) {
-                img.pixels[output]   += pixels[input++] >> 16;
-                img.pixels[output+1] += pixels[input++] >> 16;
-                img.pixels[output+2] += pixels[input++] >> 16;
-
-                if (--xtogo == 0) {
-                    xtogo = divisor;
-                    output += 3;
-                }
-            }
-
-            if (--ytogo == 0) {
-                ytogo = divisor;
-                linestart += img.width*3;
-            }
-        }
-
-        int inputPixelsPerOutputPixel = divisor*divisor;
-        for (int i=0;i<img.pixels.length;i++) {
-            int pixel = img.pixels[i] / inputPixelsPerOutputPixel;
-            img.pixels[i] = pixel << 16;
-        }
-
-        return img;
-    }
 }
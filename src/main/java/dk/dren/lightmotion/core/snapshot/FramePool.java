@@ -0,0 +1,70 @@
+package dk.dren.lightmotion.core.snapshot;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A per-camera pool of pixel buffers, keyed by their size, which follows from the frame geometry.
+ *
+ * Once the pool has been warmed up by the first few frames, the steady state reuses the same buffers over and over,
+ * so the young generation isn't churned by a megabyte or so per frame.
+ *
+ * Buffers are acquired by the thread reading frames and released by the thread processing them, so the pool is
+ * synchronized, the buffers are big enough that the locking is noise.
+ */
+public class FramePool {
+    /**
+     * The number of free buffers kept for each size, a camera only has one snapshot waiting in its mailbox, so more
+     * than this is never needed and anything above it is left for the garbage collector, which also takes care of
+     * old sizes.
+     */
+    private static final int MAX_FREE_PER_SIZE = 4;
+
+    private final Map<Integer, ArrayDeque<byte[]>> free = new HashMap<>();
+    private final AtomicLong allocations = new AtomicLong();
+    private final AtomicLong allocatedBytes = new AtomicLong();
+
+    /**
+     * @return A buffer of exactly the given size, the content is whatever the previous user left in it.
+     */
+    public byte[] acquire(int size) {
+        synchronized (free) {
+            ArrayDeque<byte[]> buffers = free.get(size);
+            if (buffers != null && !buffers.isEmpty()) {
+                return buffers.pop();
+            }
+        }
+
+        allocations.incrementAndGet();
+        allocatedBytes.addAndGet(size);
+        return new byte[size];
+    }
+
+    /**
+     * Hands a buffer back to the pool, the caller must not touch it afterwards.
+     */
+    public void release(byte[] buffer) {
+        synchronized (free) {
+            ArrayDeque<byte[]> buffers = free.computeIfAbsent(buffer.length, size -> new ArrayDeque<>());
+            if (buffers.size() < MAX_FREE_PER_SIZE) {
+                buffers.push(buffer);
+            }
+        }
+    }
+
+    /**
+     * @return The number of buffers the pool has had to allocate, this stops growing once the pool is warm.
+     */
+    public long getAllocations() {
+        return allocations.get();
+    }
+
+    /**
+     * @return The total number of bytes allocated by the pool.
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes.get();
+    }
+}
@@ -0,0 +1,106 @@
+package dk.dren.lightmotion.core.snapshot;
+
+/**
+ * The rate at which frames from a camera are sampled for detection, the frames arrive at the highest rate any camera
+ * may be sampled at and the ingest asks accept() about each one, so the rate can change from one frame to the next
+ * without restarting anything.
+ *
+ * The intervals are set by the FrameRateController, while the interval actually seen between accepted frames is
+ * tracked, so the detector can scale its background decay to the time that really passes between two frames.
+ *
+ * The motion interval is used, if it's shorter, from the moment the SnapshotProcessingManager reports that the camera
+ * has an open motion event, without waiting for the controller.
+ */
+public class FrameRate {
+    /**
+     * The interval, in milliseconds, the detector was tuned for, this is what the decay orders are relative to.
+     */
+    public static final long NOMINAL_INTERVAL = 1000;
+
+    /**
+     * A frame arriving a bit early is accepted anyway, otherwise jitter would make every other interval twice as long
+     */
+    private static final int EARLY_PERCENT = 10;
+
+    /**
+     * Gaps longer than this, like a restart of ffmpeg, don't count towards the measured interval
+     */
+    private static final long MAX_MEASURED_INTERVAL = 60000;
+
+    private volatile long interval = NOMINAL_INTERVAL;
+    private volatile long motionInterval = NOMINAL_INTERVAL;
+    private volatile boolean motion;
+    private volatile long measuredInterval = NOMINAL_INTERVAL;
+    private long lastAccepted;
+    private boolean hasAccepted;
+
+    /**
+     * @return true if a frame arriving now should be detected on, false if it should be dropped unseen
+     */
+    public synchronized boolean accept(long nowMillis) {
+        if (hasAccepted) {
+            final long interval = getInterval();
+            long since = nowMillis - lastAccepted;
+            if (since < interval - interval*EARLY_PERCENT/100) {
+                return false;
+            }
+            if (since <= MAX_MEASURED_INTERVAL) {
+                measuredInterval = (measuredInterval*3 + since) / 4;
+            }
+        }
+        lastAccepted = nowMillis;
+        hasAccepted = true;
+        return true;
+    }
+
+    /**
+     * @return The interval in use right now, in milliseconds
+     */
+    public long getInterval() {
+        return motion ? Math.min(motionInterval, interval) : interval;
+    }
+
+    /**
+     * @param interval The interval while there's no motion, in milliseconds
+     */
+    public void setInterval(long interval) {
+        this.interval = interval;
+    }
+
+    /**
+     * @param motionInterval The interval while there's motion, in milliseconds
+     */
+    public void setMotionInterval(long motionInterval) {
+        this.motionInterval = motionInterval;
+    }
+
+    public void setMotion(boolean motion) {
+        this.motion = motion;
+    }
+
+    /**
+     * @return The smoothed interval between the accepted frames in milliseconds, NOMINAL_INTERVAL until frames arrive
+     */
+    public long getMeasuredInterval() {
+        return measuredInterval;
+    }
+
+    /**
+     * Scales a decay order, which was chosen for NOMINAL_INTERVAL, to the interval between frames, so the background
+     * adapts at the same speed in seconds at any rate, each halving of the interval adds one to the order.
+     *
+     * @return The decay order to use, between 1 and 10
+     */
+    public static int scaleDecay(int nominalDecay, long intervalMillis) {
+        double ratio = (double)NOMINAL_INTERVAL / Math.max(1, intervalMillis);
+        int scaled = nominalDecay + (int)Math.round(Math.log(ratio) / Math.log(2));
+        return Math.max(1, Math.min(10, scaled));
+    }
+
+    /**
+     * Scales a number of frames, chosen for NOMINAL_INTERVAL, so it covers the same time at the interval between frames
+     */
+    public static int scaleFrames(int nominalFrames, long intervalMillis) {
+        return (int)Math.max(1, nominalFrames * NOMINAL_INTERVAL / Math.max(1, intervalMillis));
+    }
+}
@@ -0,0 +1,66 @@
+package dk.dren.lightmotion.core.snapshot;
+
+import java.util.Arrays;
+
+/**
+ * A 64 bit perceptual signature of an image, a difference hash: the image is reduced to 9x8 grey cells and each
+ * bit tells if a cell is brighter than its neighbour to the right.
+ *
+ * Frames that look the same get the same or nearly the same signature, so the Hamming distance between two
+ * signatures is a very cheap measure of how different two frames are.
+ *
+ * An instance keeps the cell sums between frames, so signing the frames of a camera allocates nothing, it must only
+ * be used by one thread at a time.
+ */
+public class FrameSignature {
+    private static final int COLUMNS = 9;
+    private static final int ROWS = 8;
+
+    private final long[] sums = new long[COLUMNS*ROWS];
+    private final int[] counts = new int[COLUMNS*ROWS];
+
+    public static long of(BytePixels image) {
+        return new FrameSignature().sign(image);
+    }
+
+    public long sign(BytePixels image) {
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final int channels = image.getChannels();
+        final byte[] pixels = image.getPixels();
+        Arrays.fill(sums, 0);
+        Arrays.fill(counts, 0);
+
+        int input = 0;
+        for (int y=0;y<height;y++) {
+            final int firstCell = y*ROWS/height*COLUMNS;
+            for (int x=0;x<width;x++) {
+                final int cell = firstCell + x*COLUMNS/width;
+                int grey = 0;
+                for (int c=0;c<channels;c++) {
+                    grey += pixels[input++] & 0xff;
+                }
+                sums[cell] += grey;
+                counts[cell]++;
+            }
+        }
+
+        long signature = 0;
+        for (int row=0;row<ROWS;row++) {
+            for (int column=0;column<COLUMNS-1;column++) {
+                int cell = row*COLUMNS+column;
+                // Compare the means without dividing, by cross multiplying with the counts
+                boolean brighter = sums[cell]*Math.max(1, counts[cell+1]) > sums[cell+1]*Math.max(1, counts[cell]);
+                signature = (signature << 1) | (brighter ? 1 : 0);
+            }
+        }
+        return signature;
+    }
+
+    /**
+     * @return The number of bits that differ between the two signatures, 0..64
+     */
+    public static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+}
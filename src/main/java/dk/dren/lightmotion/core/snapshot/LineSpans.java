@@ -0,0 +1,117 @@
+package dk.dren.lightmotion.core.snapshot;
+
+import lombok.Getter;
+
+/**
+ * The parts of an image to process, as runs of pixels on each line, each line has pairs of start (inclusive) and
+ * end (exclusive) x coordinates in increasing order.
+ *
+ * The top and bottom of the bounding box are kept, so lines that have no runs at all can be skipped in one go.
+ *
+ * The array of a line may be longer than its runs, so it can be reused from frame to frame, getLength tells how much
+ * of it is in use.
+ */
+public class LineSpans {
+    private final int[][] spans;
+    private final int[] lengths;
+
+    /**
+     * The bounding box of the runs, top is inclusive and bottom is exclusive
+     */
+    @Getter
+    private int top;
+    @Getter
+    private int bottom;
+
+    public LineSpans(int[][] spans) {
+        this.spans = spans;
+        lengths = new int[spans.length];
+        for (int y=0;y<spans.length;y++) {
+            lengths[y] = spans[y].length;
+        }
+        updateBounds();
+    }
+
+    /**
+     * An empty set of lines, to be filled in with setLine
+     */
+    LineSpans(int height) {
+        spans = new int[height][];
+        lengths = new int[height];
+        updateBounds();
+    }
+
+    /**
+     * Sets the runs of a line to the first length entries of the array, the array is used as is, not copied.
+     * updateBounds must be called once all the lines are set.
+     */
+    void setLine(int y, int[] runs, int length) {
+        spans[y] = runs;
+        lengths[y] = length;
+    }
+
+    void updateBounds() {
+        int top = spans.length;
+        int bottom = 0;
+        for (int y=0;y<spans.length;y++) {
+            if (lengths[y] > 0) {
+                top = Math.min(top, y);
+                bottom = y+1;
+            }
+        }
+        this.top = Math.min(top, bottom);
+        this.bottom = bottom;
+    }
+
+    /**
+     * @return The runs of the line, only the first getLength(y) entries are valid.
+     */
+    public int[] getSpans(int y) {
+        return spans[y];
+    }
+
+    /**
+     * @return The number of entries in use in the runs of the line, twice the number of runs.
+     */
+    public int getLength(int y) {
+        return lengths[y];
+    }
+
+    /**
+     * @return true if the pixel is inside one of the runs, this is a linear search, so it's for the slow paths only.
+     */
+    public boolean contains(int x, int y) {
+        int[] line = spans[y];
+        for (int i=0;i<lengths[y];i+=2) {
+            if (x >= line[i] && x < line[i+1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes the runs of both lines, where they overlap, to result, which must have room for aLength+bLength entries
+     *
+     * @return The number of entries written
+     */
+    static int intersect(int[] a, int aLength, int[] b, int bLength, int[] result) {
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < aLength && j < bLength) {
+            int start = Math.max(a[i], b[j]);
+            int end = Math.min(a[i+1], b[j+1]);
+            if (start < end) {
+                result[count++] = start;
+                result[count++] = end;
+            }
+            if (a[i+1] < b[j+1]) {
+                i += 2;
+            } else {
+                j += 2;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,241 @@
+package dk.dren.lightmotion.core.snapshot;
+
+import lombok.extern.java.Log;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+/**
+ * The compiled movement mask of one camera, for each detection resolution it has been asked for.
+ *
+ * The mask is decoded, scaled and compiled on a background thread and the finished masks are swapped in as a whole,
+ * so the motion thread only ever sees a complete mask. It only waits for the compilation the first time a
+ * resolution is seen, as it has no mask to use in the meantime.
+ *
+ * The state dirs of all the cameras are watched by one WatchService, when the mask file is created, changed or
+ * deleted every resolution in use is recompiled in the background and the motion detector keeps using the old mask
+ * until the new one is ready, so an edited mask takes effect without a restart. A cache that is no longer used must
+ * be closed, so it's no longer watched, and the dir isn't either once none of its caches are left.
+ */
+@Log
+public class MaskCache {
+    private static final ExecutorService COMPILER = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Compiling movement masks");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final Map<Path, List<MaskCache>> WATCHED = new ConcurrentHashMap<>();
+    private static final Map<Path, WatchKey> WATCH_KEYS = new HashMap<>();
+    private static WatchService watchService;
+
+    private final String cameraName;
+    private final File maskFile;
+    private final File debugDir;
+    private final AtomicInteger generation = new AtomicInteger();
+    /**
+     * The first compilation of each resolution, which the motion thread waits for
+     */
+    private final Map<Long, Future<BitPixels>> pending = new ConcurrentHashMap<>();
+
+    /**
+     * The compiled masks by resolution, a null value means that there is no mask file, the map is never modified,
+     * it's replaced by a modified copy.
+     */
+    private volatile Map<Long, BitPixels> masks = Collections.emptyMap();
+
+    /**
+     * @param debugDir The directory to write the compiled masks to, or null to not write them
+     */
+    public MaskCache(String cameraName, File maskFile, File debugDir) {
+        this.cameraName = cameraName;
+        this.maskFile = maskFile;
+        this.debugDir = debugDir;
+        watch(this);
+    }
+
+    /**
+     * Stops watching the mask file, the masks already compiled can still be used
+     */
+    public void close() {
+        unwatch(this);
+    }
+
+    /**
+     * @return The mask for images of the given size, or null if there is no mask
+     */
+    public BitPixels get(int width, int height) {
+        final long key = key(width, height);
+        Map<Long, BitPixels> current = masks;
+        if (current.containsKey(key)) {
+            return current.get(key);
+        }
+
+        try {
+            return pending.computeIfAbsent(key, k -> compile(width, height)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            return null; // Already logged by the compilation
+        }
+    }
+
+    private static long key(int width, int height) {
+        return ((long)width << 32) | height;
+    }
+
+    /**
+     * Loads and compiles the mask in the background and swaps it in, unless a newer version of the file has been
+     * compiled for the same resolution in the meantime.
+     */
+    private Future<BitPixels> compile(int width, int height) {
+        final long key = key(width, height);
+        final int compiledGeneration = generation.get();
+        return COMPILER.submit(() -> {
+            BitPixels mask;
+            try {
+                mask = load(width, height);
+            } catch (Exception e) {
+                log.log(Level.SEVERE, "Failed to load mask for "+cameraName+" from "+maskFile, e);
+                throw e;
+            }
+
+            synchronized (this) {
+                if (generation.get() == compiledGeneration || !masks.containsKey(key)) {
+                    Map<Long, BitPixels> updated = new HashMap<>(masks);
+                    updated.put(key, mask);
+                    masks = Collections.unmodifiableMap(updated);
+                }
+            }
+            return mask;
+        });
+    }
+
+    private BitPixels load(int width, int height) throws IOException {
+        if (!maskFile.isFile()) {
+            return null;
+        }
+
+        BufferedImage raw = ImageIO.read(maskFile);
+        if (raw == null) {
+            throw new IOException("Could not decode "+maskFile);
+        }
+
+        BufferedImage bi = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics g = bi.getGraphics();
+        g.drawImage(raw, 0,0,
+                bi.getWidth(), bi.getHeight(),
+                new Color(0xff, 0xff, 0xff), null);
+        g.dispose();
+
+        BitPixels mask = new BitPixels(bi);
+        log.info("Compiled the mask of "+cameraName+" for "+width+"x"+height);
+
+        if (debugDir != null) {
+            ImageIO.write(mask.toBufferedImage(), "png", new File(debugDir, cameraName+"-movement-mask-"+width+"x"+height+".png"));
+        }
+        return mask;
+    }
+
+    /**
+     * Recompiles the mask for all the resolutions that have been asked for, in the background
+     */
+    void reload() {
+        generation.incrementAndGet();
+        Set<Long> keys = new HashSet<>(masks.keySet());
+        keys.addAll(pending.keySet()); // A compilation already running may have read the old file
+        for (Long key : keys) {
+            compile((int)(key >> 32), (int)(long)key);
+        }
+    }
+
+    private static synchronized void watch(MaskCache cache) {
+        Path dir = cache.maskFile.getAbsoluteFile().getParentFile().toPath();
+        try {
+            if (watchService == null) {
+                watchService = FileSystems.getDefault().newWatchService();
+                Thread watcher = new Thread(MaskCache::watchForChanges, "Watching movement masks");
+                watcher.setDaemon(true);
+                watcher.start();
+            }
+            if (!WATCHED.containsKey(dir)) {
+                WATCH_KEYS.put(dir, dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE));
+            }
+            WATCHED.computeIfAbsent(dir, d -> new CopyOnWriteArrayList<>()).add(cache);
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Cannot watch "+dir+" for changes to the mask of "+cache.cameraName+", a restart is needed to pick them up", e);
+        }
+    }
+
+    private static synchronized void unwatch(MaskCache cache) {
+        Path dir = cache.maskFile.getAbsoluteFile().getParentFile().toPath();
+        List<MaskCache> caches = WATCHED.get(dir);
+        if (caches == null) {
+            return;
+        }
+        caches.remove(cache);
+        if (caches.isEmpty()) {
+            WATCHED.remove(dir);
+            WatchKey key = WATCH_KEYS.remove(dir);
+            if (key != null) {
+                key.cancel();
+            }
+        }
+    }
+
+    /**
+     * @return true if the dir is watched for changes to a mask
+     */
+    static synchronized boolean isWatched(File dir) {
+        return WATCHED.containsKey(dir.getAbsoluteFile().toPath());
+    }
+
+    private static void watchForChanges() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            Path dir = (Path)key.watchable();
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (!(event.context() instanceof Path)) {
+                    continue; // An overflow, which is only a risk if the dir is very busy
+                }
+                String name = event.context().toString();
+                for (MaskCache cache : WATCHED.getOrDefault(dir, Collections.emptyList())) {
+                    if (cache.maskFile.getName().equals(name)) {
+                        log.info("The mask of "+cache.cameraName+" has changed, reloading it");
+                        cache.reload();
+                    }
+                }
+            }
+            key.reset();
+        }
+    }
+}
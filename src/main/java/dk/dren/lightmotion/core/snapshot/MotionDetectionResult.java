@@ -3,6 +3,8 @@ package dk.dren.lightmotion.core.snapshot;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 
+import java.util.List;
+
 @RequiredArgsConstructor
 @Getter
 public class MotionDetectionResult {
@@ -11,4 +13,9 @@ public class MotionDetectionResult {
     private final int maxDiffX;
     private final int maxDiffY;
     private final int threshold;
+
+    /**
+     * The blobs of diff pixels above the threshold that are at least MotionConfig.minBlobArea, largest first
+     */
+    private final List<Blob> blobs;
 }
@@ -4,87 +4,97 @@ import dk.dren.lightmotion.db.entity.Event;
 import dk.dren.lightmotion.core.events.LightMotionEventType;
 import dk.dren.lightmotion.db.entity.MotionConfig;
 import lombok.extern.java.Log;
-import org.apache.commons.io.FileUtils;
 
-import javax.imageio.ImageIO;
-import java.awt.*;
-import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 
 /**
- * Detects motion in the image
+ * Detects motion in the image, the same pass also feeds the whole-frame statistics the SceneDetector uses to spot
+ * whiteouts, blackouts and global changes.
  */
 @Log
 public class MotionDetector implements SnapshotProcessor {
     public static final int STATE_STORAGE_INTERVAL = 30 * 1000;
+
+    /**
+     * The state of all the detectors is written by this thread, so the motion thread only has to copy it
+     */
+    private static final ExecutorService STATE_WRITER = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Storing motion detector state");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * The factor the incoming images are scaled down by before detecting motion, see SnapshotImage.getDetectionImage
+     */
+    public static final int DETECTION_DOWNSCALE = 8;
+
+    /**
+     * The decay order of the background and the noise at FrameRate.NOMINAL_INTERVAL, see FrameRate.scaleDecay
+     */
+    private static final int DECAY = 4;
+
+    /**
+     * The number of quiet frames at FrameRate.NOMINAL_INTERVAL before a motion event ends
+     */
+    private static final int QUIET_FRAMES = 10;
+
     private final SnapshotProcessingManager manager;
-    private final File averageFile;
+    private final File stateFile;
     private final File debugDir;
-    private final File maskFile;
+    private final MaskCache maskCache;
 
     private FixedPointPixels average;
     private FixedPointPixels noise;
+    private int[] noiseVariance;
+
+    /**
+     * The number of fraction bits dropped from the deviations of the diff before they are squared for the variance
+     */
+    private static final int NOISE_VARIANCE_SHIFT = 3;
+    private FixedPointPixels diff;
+    private int[] diffSums;
+    /**
+     * Created with the first frame, when the number of motion workers is known
+     */
+    private MotionKernel kernel;
+    private CoarseGate gate;
+    private final SceneDetector sceneDetector = new SceneDetector();
+    private boolean[] activeCells;
+    private BlobExtractor blobExtractor;
     private boolean quiet = true;
     int quietCount = 0;
-    BitPixels currentMask;
 
     public MotionDetector(SnapshotProcessingManager manager) {
         this.manager = manager;
-        averageFile = new File(manager.getStateDir(), "average.png");
-        debugDir = System.getProperty("debug.dir", "").isEmpty() ? null : new File(System.getProperty("debug.dir"));
-        maskFile = new File(manager.getStateDir(), "movement-mask.png");
-    }
-
-    private BitPixels loadCompatibleMask(FixedPointPixels snapshot) {
-        if (currentMask != null && currentMask.isSameSizeAs(snapshot)) {
-            return currentMask;
-        }
-
-        if (!maskFile.isFile()) {
-            return null;
-        }
-
-        BufferedImage raw = null;
-        try {
-            raw = ImageIO.read(maskFile);
-        } catch (IOException e) {
-            log.log(Level.SEVERE, "Failed to load mask for "+manager.getCamera().getName()+" from "+maskFile, e);
-        }
-
-        BufferedImage bi = new BufferedImage(snapshot.getWidth(), snapshot.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
-        Graphics g = bi.getGraphics();
-        g.drawImage(raw, 0,0,
-                bi.getWidth(), bi.getHeight(),
-                new Color(0xff, 0xff, 0xff), null);
-        g.dispose();
-
-        currentMask = new BitPixels(bi);
-
-
-        BufferedImage cb = currentMask.toBufferedImage();
-        try {
-            ImageIO.write(cb, "png", new File(maskFile.getParent(),"movement-mask-loaded.png"));
-        } catch (IOException e) {
-            log.log(Level.SEVERE, "Fail", e);
-        }
-
-        return currentMask;
+        stateFile = new File(manager.getStateDir(), "detector-state.bin");
+        debugDir = System.getProperty(DebugCapture.DIR_PROPERTY, "").isEmpty() ? null : new File(System.getProperty(DebugCapture.DIR_PROPERTY));
+        maskCache = new MaskCache(manager.getCamera().getName(), new File(manager.getStateDir(), "movement-mask.png"), debugDir);
     }
 
     /**
      * This method iterates through the input pixels once and in that pass it does two things:
      *
      * * Add the new image to the current image via a moving average algorithm.
-     * * Generate a diff at low resolution (diffWidth*diffHeigh).
+     * * Generate a diff at the low resolution of the diffImage.
+     * @param kernel The implementation of the inner loop, see MotionKernels
      * @param other The new image to add to the moving average and detect differences in
-     * @param mask
+     * @param spans The pixels to process, the diff and average of the rest isn't touched, null means all
      * @param decayOrder The order of decay to use for the moving average (4 means than 1/16 of the diff will be used to update the average)
-     * @param diffWidth Width of the diff image
-     * @param diffHeight Height of the diff image
+     * @param diffImage The image to write the diff to, it's reused for every frame
+     * @param diffSums Scratch space with room for one sum per diff pixel
      */
-    private static FixedPointPixels motionDetect(FixedPointPixels average, FixedPointPixels other, BitPixels mask, int decayOrder, int diffWidth, int diffHeight) {
+    private static void motionDetect(MotionKernel kernel, FixedPointPixels average, BytePixels other, LineSpans spans, int decayOrder, FixedPointPixels diffImage, int[] diffSums) {
+        final int diffWidth = diffImage.getWidth();
+        final int diffHeight = diffImage.getHeight();
         if (average.getWidth() % diffWidth != 0) {
             throw new IllegalArgumentException("The diffWidth="+diffWidth+" must be a whole fraction of imageWidth="+average.getWidth());
         }
@@ -93,101 +103,101 @@ public class MotionDetector implements SnapshotProcessor {
         }
 
         // Number of pixels per diff pixel
-        final int xpitch = 3*average.getWidth()/diffWidth;
+        final int channels = average.isMonochrome() ? 1 : 3;
+        final int xpitch = channels*average.getWidth()/diffWidth;
         final int ypitch = average.getHeight()/diffHeight;
 
-        final FixedPointPixels diffImage = new FixedPointPixels(other.getName()+"-diff", diffWidth, diffHeight, true);
-        final int[] otherPixels = other.getPixels();
-        final int[] diffPixels = diffImage.getPixels();
-        final int inputSubWidth = average.getWidth() * 3;
-
-        int firstOutputPixelInLine = 0;
-        int inputIndex = 0;
-        int maskPixel = 0;
-        int ypixelsToGo = ypitch;
-        int[] averagePixels = average.getPixels();
-        for (int inputY = 0 ; inputY<average.getHeight() ; inputY++) {
-
-            int outputPixel = firstOutputPixelInLine;
-            int xpixelsToGo = xpitch;
-            int maskPixelToGo = 3;
-            for (int inputX = 0; inputX< inputSubWidth; inputX++) {
-                int diff = otherPixels[inputIndex]-averagePixels[inputIndex];
-
-                if (mask == null || !mask.isBlack(maskPixel)) {
-                    diffPixels[outputPixel] += Math.abs(diff) >> 16;
-                }
-                if (--maskPixelToGo == 0) {
-                    maskPixel++;
-                    maskPixelToGo = 3;
-                }
-
-                averagePixels[inputIndex] += diff >> decayOrder;
-
-                inputIndex++;
-
-                if (--xpixelsToGo == 0) {
-                    xpixelsToGo = xpitch;
-                    outputPixel++;
-                }
-            }
-
-            if (--ypixelsToGo == 0) {
-                ypixelsToGo = ypitch;
-                firstOutputPixelInLine += diffWidth;
-            }
-        }
+        final short[] diffPixels = diffImage.getPixels();
+        Arrays.fill(diffSums, 0);
+        kernel.detect(average, other, spans, decayOrder, xpitch, ypitch, diffWidth, 0, average.getHeight(), diffSums);
 
         // Scale the diff pixels so we have a comparable scale
         final int inputPixelsPerOutputPixel = xpitch * ypitch;
         for (int diffPixel=0 ; diffPixel < diffPixels.length ; diffPixel++) {
-            diffPixels[diffPixel] = (diffPixels[diffPixel] / inputPixelsPerOutputPixel) << 16;
+            diffPixels[diffPixel] = (short)(diffSums[diffPixel] / inputPixelsPerOutputPixel);
         }
-
-        return diffImage;
     }
 
 
     @Override
-    public Event process(FixedPointPixels image) {
-        FixedPointPixels blocky = image.scale(8);
+    public Event process(SnapshotImage image) throws IOException {
+        BytePixels blocky = image.getDetectionImage();
 
-        int imagePixelCount = blocky.getWidth() * blocky.getHeight();
-        log.fine("Got image: "+blocky.getWidth()+"x"+blocky.getHeight()+" pixels: "+imagePixelCount+" sub-pixels: "+blocky.getPixels().length);
+        if (log.isLoggable(Level.FINE)) {
+            int imagePixelCount = blocky.getWidth() * blocky.getHeight();
+            log.fine("Got image: " + blocky.getWidth() + "x" + blocky.getHeight() + " pixels: " + imagePixelCount + " sub-pixels: " + blocky.getPixels().length);
+        }
+
+        if (average == null) {
+            restoreState(blocky);
+        }
 
-        if (average == null || average.getPixels().length != blocky.getPixels().length)  {
-            average = blocky.clone(manager.getCamera().getName()+"-average");
+        if (average == null || average.getPixels().length != blocky.getPixels().length || !gate.isSameGeometry(blocky))  {
+            average = new FixedPointPixels(manager.getCamera().getName()+"-average", blocky);
+            gate = new CoarseGate(blocky);
+            noise = null; // The diff image changes size along with the average
 
         } else {
 
             long t0 = System.nanoTime();
 //            long diff = average.diffBucketUpdate(image, 4);
-            BitPixels mask = loadCompatibleMask(blocky);
-            FixedPointPixels diff = motionDetect(average, blocky, mask, 4, blocky.getWidth()/2, blocky.getHeight()/2);
+            MotionConfig motionConfig = manager.getMotionConfig();
+            BitPixels mask = maskCache.get(blocky.getWidth(), blocky.getHeight());
+            int diffWidth = blocky.getWidth()/2;
+            int diffHeight = blocky.getHeight()/2;
+            if (diff == null || diff.getWidth() != diffWidth || diff.getHeight() != diffHeight) {
+                diff = new FixedPointPixels(manager.getCamera().getName()+"-diff", diffWidth, diffHeight, true);
+                diffSums = new int[diffWidth*diffHeight];
+                activeCells = new boolean[diffWidth*diffHeight];
+                blobExtractor = new BlobExtractor(diffWidth, diffHeight);
+            }
+            if (kernel == null) {
+                kernel = MotionKernels.create();
+            }
+
+            // The background adapts at the same speed in seconds, whatever the rate the camera is sampled at
+            final long frameInterval = manager.getFrameRate().getMeasuredInterval();
+            final int decay = FrameRate.scaleDecay(DECAY, frameInterval);
+
+            // Only the tiles where the coarse level sees a change get the fine grained pass
+            LineSpans spans = gate.update(blocky, mask == null ? null : mask.getLineSpans(), motionConfig.getMotionThreshold(), decay);
+            gate.catchUp(average, blocky, decay);
+            sceneDetector.update(gate.getScene(), frameInterval, manager.getCamera(), manager.getOwner());
+            if (spans.getTop() < spans.getBottom()) {
+                motionDetect(kernel, average, blocky, spans, decay, diff, diffSums);
+            } else {
+                Arrays.fill(diff.getPixels(), (short)0); // Nothing is going on anywhere, so skip the fine pass entirely
+            }
             long t1 = System.nanoTime();
             if (noise == null) {
                 noise = diff.clone(manager.getCamera().getName()+"-noise");
+                noiseVariance = new int[diffWidth*diffHeight];
             }
-            updateAverageAndSubtract(noise, diff, 4);
+            findActiveCells(diff);
+            updateNoiseAndSubtract(noise, noiseVariance, diff, decay, activeCells, motionConfig.getNoiseDeviations());
 
 
-            log.fine(manager.getCamera().getName()+": diff time: "+(t1-t0));
+            if (log.isLoggable(Level.FINE)) {
+                log.fine(manager.getCamera().getName() + ": diff time: " + (t1 - t0) + " active tiles: " + gate.getActiveTiles());
+            }
 
             storeState();
 
-            MotionConfig motionConfig = manager.getMotionConfig();
-            MotionDetectionResult detected = analyzeDiff(diff, motionConfig.getMotionThreshold());
-            if (debugDir != null) {
-                storeDebug(debugDir, average, image, diff, noise, detected);
+            MotionDetectionResult detected = analyzeDiff(diff, motionConfig.getMotionThreshold(), motionConfig.getMinBlobArea());
+            DebugCapture debugCapture = manager.getDebugCapture();
+            if (debugCapture.wants(detected.isMovementDetected())) {
+                debugCapture.capture(image.getName(), average, blocky, diff, noise, detected);
             }
 
             if (detected.isMovementDetected())  {
-                log.fine("Detected motion at "+detected.getMaxDiffX()+","+detected.getMaxDiffY()+ " = "+detected.getMaxDiff());
+                if (log.isLoggable(Level.FINE)) {
+                    log.fine("Detected motion at " + detected.getMaxDiffX() + "," + detected.getMaxDiffY() + " = " + detected.getMaxDiff() + " in blobs " + detected.getBlobs());
+                }
                 quiet = false;
                 quietCount = 0;
                 return Event.start(LightMotionEventType.MOTION, manager.getCamera(), "Detected motion ("+detected.getMaxDiff()+")");
             } else {
-                if (!quiet && quietCount++ > 10) {
+                if (!quiet && quietCount++ > FrameRate.scaleFrames(QUIET_FRAMES, frameInterval)) {
                     quiet = true;
                     return Event.end(LightMotionEventType.MOTION, manager.getCamera(), "No motion detected");
                 }
@@ -198,101 +208,124 @@ public class MotionDetector implements SnapshotProcessor {
     }
 
     private long lastStateStorage = 0;
+    private Future<?> pendingStateStorage;
+
+    /**
+     * Hands a copy of the state to the STATE_WRITER, unless the last copy is still waiting to be written
+     */
     private void storeState() {
 
         long now = System.currentTimeMillis();
-        if (now-lastStateStorage > STATE_STORAGE_INTERVAL) {
+        if (now-lastStateStorage > STATE_STORAGE_INTERVAL && (pendingStateStorage == null || pendingStateStorage.isDone())) {
             lastStateStorage = now+(int)(Math.random()*10000); // Add a little randomness, to allow the stage storage of different motion detectors to be spread out in time
-            try {
-                average.write(averageFile);
-            } catch (Exception e) {
-                log.log(Level.SEVERE, "Failed to write average to " + averageFile, e);
-            }
+            DetectorState state = new DetectorState(average, noise, noiseVariance, quiet, quietCount).copy();
+            pendingStateStorage = STATE_WRITER.submit(() -> {
+                try {
+                    state.write(stateFile);
+                } catch (Exception e) {
+                    log.log(Level.SEVERE, "Failed to write state to " + stateFile, e);
+                }
+            });
         }
     }
 
-    private void updateAverageAndSubtract(FixedPointPixels noise, FixedPointPixels diff, final int decay) {
-        int[] noisePixels = noise.getPixels();
-        int[] diffPixels = diff.getPixels();
+    @Override
+    public void close() {
+        maskCache.close();
+    }
 
-        for (int i=0;i<noisePixels.length;i++) {
-            int diffPixel = diffPixels[i];
-            int noisePixel = noisePixels[i];
-            int adjustment = (diffPixel - noisePixel) >> decay;
-            noisePixel += adjustment;
+    /**
+     * Picks up the state stored by a previous run, if it was learned from images of the same size
+     */
+    private void restoreState(BytePixels blocky) {
+        if (!stateFile.isFile()) {
+            return;
+        }
 
-            if (noisePixel > diffPixel) {
-                diffPixels[i] = 0;
-            } else {
-                diffPixels[i] = diffPixel - noisePixel;
+        try {
+            DetectorState state = DetectorState.read(stateFile, manager.getCamera().getName());
+            FixedPointPixels restored = state.getAverage();
+            FixedPointPixels restoredNoise = state.getNoise();
+            if (restored.getWidth() != blocky.getWidth() || restored.getHeight() != blocky.getHeight() || restored.isMonochrome() != blocky.isMonochrome() ||
+                    restoredNoise.getWidth() != blocky.getWidth()/2 || restoredNoise.getHeight() != blocky.getHeight()/2) {
+                log.info("Ignoring the stored state of "+manager.getCamera().getName()+" as the image size has changed");
+                return;
             }
-            noisePixels[i] = noisePixel;
+
+            average = restored;
+            noise = restoredNoise;
+            noiseVariance = state.getNoiseVariance();
+            quiet = state.isQuiet();
+            quietCount = state.getQuietCount();
+            gate = new CoarseGate(blocky);
+            log.info("Restored the state of "+manager.getCamera().getName()+" from "+stateFile);
+
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Failed to read the state of "+manager.getCamera().getName()+" from "+stateFile, e);
         }
     }
 
-    private void updateAverageAndSubtractBlurred(FixedPointPixels noise, FixedPointPixels diff, final int decay) {
-        int[] noisePixels = noise.getPixels();
-        int[] diffPixels = diff.getPixels();
-
-        int w = noise.getWidth();
-        int h = noise.getHeight();
-        int lastPixelOnLine = w - 1;
-
-        int pixel = 0;
-        for (int y=0;y<noise.getHeight();y++) {
-            for (int x=0;x<noise.getWidth();x++) {
-                int diffPixel = diffPixels[pixel];
-                int noisePixel = noisePixels[pixel];
-                if (noisePixel < 0) {
-                    noisePixel = 0;
-                }
-                int adjustment = (diffPixel - noisePixel) >> decay;
-                noisePixel += adjustment;
-                noisePixels[pixel] = noisePixel;
-                if (noisePixel > diffPixel) {
-                    diffPixels[pixel] = 0;
-                } else {
-                    diffPixels[pixel] = diffPixel - noisePixel;
-                }
+    /**
+     * Marks the diff pixels that belong to tiles the gate let through to the fine grained pass
+     */
+    private void findActiveCells(FixedPointPixels diff) {
+        int cellWidth = average.getWidth() / diff.getWidth();
+        int cellHeight = average.getHeight() / diff.getHeight();
+        int cell = 0;
+        for (int y=0;y<diff.getHeight();y++) {
+            for (int x=0;x<diff.getWidth();x++) {
+                activeCells[cell++] = gate.isActive(x*cellWidth, y*cellHeight);
+            }
+        }
+    }
 
-                int blurAdjustment = adjustment >> 2;
-                if (blurAdjustment > 0) {
-                    int cornerBlurAdjustment = blurAdjustment >> 1;
-                    if (y != 0) {
-                        if (x != 0) {
-                            noisePixels[pixel - w - 1] += cornerBlurAdjustment;
-                        }
-                        noisePixels[pixel - w] += blurAdjustment;
-                        if (x < lastPixelOnLine) {
-                            noisePixels[pixel - w + 1] += cornerBlurAdjustment;
-                        }
-                    }
-
-                    if (x != 0) {
-                        noisePixels[pixel - 1] += blurAdjustment;
-                    }
-                    if (x < lastPixelOnLine) {
-                        noisePixels[pixel + 1] += blurAdjustment;
-                    }
-
-                    if (y < h - 1) {
-                        if (x != 0) {
-                            noisePixels[pixel + w - 1] += cornerBlurAdjustment;
-                        }
-                        noisePixels[pixel + w] += blurAdjustment;
-                        if (x < lastPixelOnLine) {
-                            noisePixels[pixel + w + 1] += cornerBlurAdjustment;
-                        }
-                    }
-                }
+    /**
+     * Subtracts the noise from the diff, the noise of each diff pixel is modelled by an exponentially decaying mean
+     * and variance, updated Welford-style from the deviation from the old mean, so a diff pixel only survives if it's
+     * above the mean and more than the given number of standard deviations away from it.
+     *
+     * The variance is kept in integers at NOISE_VARIANCE_SHIFT fewer fraction bits than the diff, which keeps the
+     * squares well inside an int, and it's compared as squares, so there's no square root.
+     *
+     * @param active The diff pixels that were actually diffed in this frame, the noise of the others is left alone,
+     *               as their diff is unknown rather than zero, null means all of them.
+     * @param deviations The number of standard deviations a diff pixel must be above the mean, 0 to only use the mean
+     */
+    static void updateNoiseAndSubtract(FixedPointPixels noise, int[] noiseVariance, FixedPointPixels diff, final int decay, boolean[] active, int deviations) {
+        short[] noisePixels = noise.getPixels();
+        short[] diffPixels = diff.getPixels();
+        final long deviationsSquared = (long)deviations*deviations;
 
-                pixel++;
+        for (int i=0;i<noisePixels.length;i++) {
+            if (active != null && !active[i]) {
+                diffPixels[i] = 0;
+                continue;
             }
+            int diffPixel = diffPixels[i];
+            int noisePixel = noisePixels[i];
+            int deviation = diffPixel - noisePixel;
+            noisePixel += deviation >> decay;
+
+            int variance = noiseVariance[i];
+            int scaledDeviation = deviation >> NOISE_VARIANCE_SHIFT;
+            int square = scaledDeviation*scaledDeviation;
+            noiseVariance[i] = variance + ((square - variance) >> decay);
+
+            if (noisePixel > diffPixel || (deviations > 0 && square <= deviationsSquared*variance)) {
+                diffPixels[i] = 0;
+            } else {
+                diffPixels[i] = (short)(diffPixel - noisePixel);
+            }
+            noisePixels[i] = (short)noisePixel;
         }
     }
 
-    private MotionDetectionResult analyzeDiff(FixedPointPixels diffImage, int threshold) {
-        int[] diffPixels = diffImage.getPixels();
+    /**
+     * Finds the hottest diff pixel and the blobs of diff pixels above the threshold, there's only motion if at least
+     * one blob is big enough, so a single noisy diff pixel can be ignored.
+     */
+    private MotionDetectionResult analyzeDiff(FixedPointPixels diffImage, int threshold, int minBlobArea) {
+        short[] diffPixels = diffImage.getPixels();
         // Find the diff pixel with the greatest difference
         int maxDiff = 0;
         int maxDiffPixel = -1;
@@ -304,49 +337,9 @@ public class MotionDetector implements SnapshotProcessor {
             }
         }
 
-        maxDiff >>= 16;
-
-        return new MotionDetectionResult(maxDiff>=threshold, maxDiff, maxDiffPixel % diffImage.getWidth(), maxDiffPixel / diffImage.getWidth(), threshold);
-    }
+        maxDiff >>= FixedPointPixels.FRACTION_BITS;
 
-    private static void storeDebug(File debugDir, FixedPointPixels average, FixedPointPixels image, FixedPointPixels diffImage, FixedPointPixels noise, MotionDetectionResult diff) {
-        BufferedImage debug = new BufferedImage(image.getWidth()*2, image.getHeight()*2, BufferedImage.TYPE_3BYTE_BGR);
-
-        BufferedImage ai = average.toBufferedImage();
-        BufferedImage ii = image.toBufferedImage();
-        BufferedImage di = diffImage.toBufferedImageWithGradient(diff.getThreshold());
-        BufferedImage ni = noise.toBufferedImageWithGradient(diff.getThreshold());
-
-        Graphics graphics = debug.getGraphics();
-        graphics.drawImage(ai, 0,               0,             image.getWidth(), image.getHeight(), null);
-        graphics.drawImage(ii, image.getWidth(), 0,                image.getWidth(), image.getHeight(), null);
-        graphics.drawImage(di, 0,               image.getHeight(), image.getWidth(), image.getHeight(), null);
-        graphics.drawImage(ni, image.getWidth(), image.getHeight(),  image.getWidth(), image.getHeight(), null);
-        if (diff.isMovementDetected()) {
-            int xscale = image.getWidth() / diffImage.getWidth();
-            int yscale = image.getHeight() / diffImage.getHeight();
-            int x0 = image.getWidth() + xscale * diff.getMaxDiffX();
-            int y0 = yscale * diff.getMaxDiffY();
-
-            graphics.setColor(new Color(0xff, 0x00, 0x00));
-            graphics.drawLine(x0, y0, x0+xscale-1, y0+yscale-1);
-            graphics.drawLine(x0+xscale-1, y0, x0, y0+yscale-1);
-
-            graphics.setColor(new Color(0xff, 0x90, 0x00));
-            graphics.drawLine(x0, y0, x0+xscale-1, y0);
-            graphics.drawLine(x0+xscale-1, y0+yscale-1, x0+xscale-1, y0);
-            graphics.drawLine(x0+xscale-1, y0+yscale-1, x0, y0+yscale-1);
-            graphics.drawLine(x0, y0, x0, y0+yscale-1);
-        }
-
-        graphics.dispose();
-
-        File debugFile = new File(debugDir, "debug-" + image.getName() + ".png");
-        try {
-            FileUtils.forceMkdirParent(debugFile);
-            ImageIO.write(debug, "png", debugFile);
-        } catch (IOException e) {
-            throw new RuntimeException("Fail!");
-        }
+        List<Blob> blobs = maxDiff >= threshold ? blobExtractor.extract(diffImage, threshold, minBlobArea) : Collections.emptyList();
+        return new MotionDetectionResult(!blobs.isEmpty(), maxDiff, maxDiffPixel % diffImage.getWidth(), maxDiffPixel / diffImage.getWidth(), threshold, blobs);
     }
 }
@@ -0,0 +1,25 @@
+package dk.dren.lightmotion.core.snapshot;
+
+/**
+ * The inner loop of the motion detector, which updates the moving average with a new image and sums up the
+ * absolute differences into a low resolution grid, see MotionKernels for how the implementation is picked.
+ *
+ * A call only touches the lines it's given and the diff grid rows they belong to, so calls for different bands of
+ * the image may run in parallel.
+ */
+public interface MotionKernel {
+    /**
+     * @param average The moving average, which is updated with the new image
+     * @param other The new image
+     * @param spans The pixels to process, the rest are neither diffed nor added to the average, or null for all
+     * @param decayOrder The number of bits to shift the diff when updating the average
+     * @param xpitch The number of sub-pixels summed into each diff pixel horizontally
+     * @param ypitch The number of lines summed into each diff pixel vertically
+     * @param diffWidth The width of the diff grid
+     * @param fromLine The first line to process, must be a multiple of ypitch
+     * @param toLine The line after the last line to process, must be a multiple of ypitch or the height
+     * @param diffSums The diff grid, the caller must have zeroed it, only the rows covered by the lines are touched
+     */
+    void detect(FixedPointPixels average, BytePixels other, LineSpans spans, int decayOrder,
+                int xpitch, int ypitch, int diffWidth, int fromLine, int toLine, int[] diffSums);
+}
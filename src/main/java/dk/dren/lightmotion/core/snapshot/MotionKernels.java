@@ -0,0 +1,136 @@
+package dk.dren.lightmotion.core.snapshot;
+
+import lombok.extern.java.Log;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Picks the MotionKernel implementation once at startup.
+ *
+ * The SpanMotionKernel is used unless -Dmotion.kernel=scalar is given, or unless the self-check finds that it
+ * doesn't produce exactly the same averages and diff grids as the ScalarMotionKernel, in which case the scalar one
+ * is used, as it's the reference.
+ *
+ * When there is only one motion worker on a machine with more than one core, the kernel is wrapped in a
+ * BandedMotionKernel running on the common ForkJoinPool, so large detection images are split across the cores.
+ * With more motion workers the cores are already kept busy by the workers, so banding is left off, rather than
+ * have every worker compete for the same pool.
+ */
+@Log
+public class MotionKernels {
+    public static final String PROPERTY = "motion.kernel";
+
+    /**
+     * About a 148x148 colour detection image, 32K sub-pixels per band, is needed before the image is split into two
+     * bands.
+     */
+    private static final int MIN_SUB_PIXELS_PER_BAND = 32*1024;
+    private static final boolean SPAN = select();
+
+    private static volatile int motionWorkers = 1;
+
+    /**
+     * Tells the kernels created from now on how many motion workers there are, banding is only used with one.
+     */
+    public static void setMotionWorkers(int workers) {
+        motionWorkers = workers;
+    }
+
+    /**
+     * @return A kernel of the selected type.
+     */
+    public static MotionKernel create() {
+        MotionKernel kernel = SPAN ? new SpanMotionKernel() : new ScalarMotionKernel();
+        if (motionWorkers == 1 && Runtime.getRuntime().availableProcessors() > 1) {
+            return new BandedMotionKernel(kernel, ForkJoinPool.commonPool(), MIN_SUB_PIXELS_PER_BAND);
+        }
+        return kernel;
+    }
+
+    private static boolean select() {
+        String wanted = System.getProperty(PROPERTY, "span");
+        if (wanted.equals("scalar")) {
+            log.info("Using the scalar motion kernel as requested by -D"+PROPERTY);
+            return false;
+        }
+        if (!wanted.equals("span")) {
+            log.warning("Unknown -D"+PROPERTY+"="+wanted+" use span or scalar, picking span");
+        }
+
+        if (!selfCheck()) {
+            log.severe("The span motion kernel does not agree with the scalar motion kernel, falling back to scalar");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Runs both kernels over a few synthetic frames, in colour and grey, with and without a mask, the span kernel
+     * is also run in tiny bands, to check that splitting the image doesn't change the result.
+     */
+    static boolean selfCheck() {
+        final int width = 80;
+        final int height = 48;
+        Random random = new Random(42);
+
+        BufferedImage maskImage = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        byte[] maskPixels = ((DataBufferByte) maskImage.getRaster().getDataBuffer()).getData();
+        for (int i=0;i<maskPixels.length;i++) {
+            // Scattered holes, with the top and bottom lines masked off to exercise the bounding box
+            boolean outside = i < width*8 || i >= width*(height-4);
+            maskPixels[i] = outside || random.nextInt(4) == 0 ? 0 : (byte)0xff;
+        }
+        BitPixels mask = new BitPixels(maskImage);
+
+        for (boolean monochrome : new boolean[]{false, true}) {
+            List<BytePixels> frames = new ArrayList<>();
+            for (int f=0;f<5;f++) {
+                BytePixels frame = new BytePixels("self-check-"+f, width, height, monochrome);
+                random.nextBytes(frame.getPixels());
+                frames.add(frame);
+            }
+
+            MotionKernel banded = new BandedMotionKernel(new SpanMotionKernel(), ForkJoinPool.commonPool(), 1);
+            if (!agree(new ScalarMotionKernel(), new SpanMotionKernel(), frames, null, width/2, height/2) ||
+                !agree(new ScalarMotionKernel(), new SpanMotionKernel(), frames, mask.getLineSpans(), width/2, height/2) ||
+                !agree(new ScalarMotionKernel(), banded, frames, mask.getLineSpans(), width/2, height/2)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Feeds the frames through both kernels, starting from an average made from the first frame and compares the
+     * averages and diff grids after each frame.
+     *
+     * @return true if both kernels produced bit-identical results
+     */
+    static boolean agree(MotionKernel reference, MotionKernel candidate, List<BytePixels> frames, LineSpans spans, int diffWidth, int diffHeight) {
+        BytePixels first = frames.get(0);
+        FixedPointPixels referenceAverage = new FixedPointPixels("reference", first);
+        FixedPointPixels candidateAverage = new FixedPointPixels("candidate", first);
+        int[] referenceSums = new int[diffWidth*diffHeight];
+        int[] candidateSums = new int[diffWidth*diffHeight];
+        int xpitch = first.getChannels()*first.getWidth()/diffWidth;
+        int ypitch = first.getHeight()/diffHeight;
+
+        for (BytePixels frame : frames.subList(1, frames.size())) {
+            Arrays.fill(referenceSums, 0);
+            Arrays.fill(candidateSums, 0);
+            reference.detect(referenceAverage, frame, spans, 4, xpitch, ypitch, diffWidth, 0, first.getHeight(), referenceSums);
+            candidate.detect(candidateAverage, frame, spans, 4, xpitch, ypitch, diffWidth, 0, first.getHeight(), candidateSums);
+
+            if (!Arrays.equals(referenceSums, candidateSums) || !Arrays.equals(referenceAverage.getPixels(), candidateAverage.getPixels())) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -1,18 +1,51 @@
 package dk.dren.lightmotion.core.snapshot;
 
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.nio.ByteBuffer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
- * Efficient parser for P6 images
+ * Efficient parser for P6 (colour) and P5 (grey) images
  */
 public class PPMParser {
     private static final Pattern SIZE = Pattern.compile("(\\d+) (\\d+)");
 
-    public static FixedPointPixels readPPM6(String name, byte[] imageBytes) {
+    public static boolean isPNM(ByteBuffer imageBytes) {
+        return imageBytes.limit() > 2 && imageBytes.get(0) == 'P' && (imageBytes.get(1) == '6' || imageBytes.get(1) == '5');
+    }
+
+    public static BytePixels readPNM(String name, byte[] imageBytes) {
+        return readPNM(name, ByteBuffer.wrap(imageBytes));
+    }
+
+    /**
+     * Parses a P6 or P5 image straight out of the buffer, which may well be a file mapped into memory, so the pixels
+     * are never copied anywhere but into the resulting image.
+     */
+    public static BytePixels readPNM(String name, ByteBuffer imageBytes) {
+        Header header = readHeader(imageBytes);
+        if (header.getChannels() == 3) {
+            return readRGB24(name, header.getWidth(), header.getHeight(), imageBytes, header.getOffset());
+        } else {
+            return readGray8(name, header.getWidth(), header.getHeight(), imageBytes, header.getOffset());
+        }
+    }
+
+    /**
+     * Parses the header of a P6 or P5 image and checks that the buffer holds the number of pixels the header promises.
+     */
+    public static Header readHeader(ByteBuffer imageBytes) {
         ArrayParser ap = new ArrayParser(imageBytes);
         String type = ap.readLine();
-        if (!type.equals("P6")) {
+        int channels;
+        if (type.equals("P6")) {
+            channels = 3;
+        } else if (type.equals("P5")) {
+            channels = 1;
+        } else {
             throw new IllegalArgumentException("Cannot read image of type "+type);
         }
 
@@ -29,31 +62,136 @@ public class PPMParser {
 
         int width = Integer.parseInt(size.group(1));
         int height = Integer.parseInt(size.group(2));
-        int expectedImageBytes = width*height*3;
+        int expectedImageBytes = width*height*channels;
 
-        int actualImageBytes = imageBytes.length - ap.getPos();
+        int actualImageBytes = imageBytes.limit() - ap.getPos();
         if (actualImageBytes != expectedImageBytes) {
             throw new IllegalArgumentException("Bad number of bytes left for pixels, header said "+expectedImageBytes+" bytes, but there are "+actualImageBytes+" bytes");
         }
 
-        FixedPointPixels result = new FixedPointPixels(name, width, height, false);
-        int[] pixels = result.getPixels();
-        if (pixels.length != expectedImageBytes) {
-            throw new IllegalArgumentException("Bad number of long pixels there should be "+expectedImageBytes+" ints, but there are "+ pixels.length+" ints");
-        }
+        return new Header(width, height, channels, ap.getPos());
+    }
 
-        int input = ap.getPos();
+    /**
+     * Converts headerless RGB pixels, as found after the P6 header or as delivered by ffmpeg's rawvideo rgb24
+     * output, into an image.
+     *
+     * @param imageBytes The buffer holding the pixels
+     * @param offset The position of the first pixel in the buffer
+     */
+    public static BytePixels readRGB24(String name, int width, int height, ByteBuffer imageBytes, int offset) {
+        BytePixels result = new BytePixels(name, width, height, false);
+        byte[] pixels = result.getPixels();
+
+        int input = offset;
         int output = 0;
         while (output < pixels.length) {
-            byte r = imageBytes[input++];
-            byte g = imageBytes[input++];
-            byte b = imageBytes[input++];
+            byte r = imageBytes.get(input++);
+            byte g = imageBytes.get(input++);
+            byte b = imageBytes.get(input++);
 
-            pixels[output++] = Byte.toUnsignedInt(g) << 16;
-            pixels[output++] = Byte.toUnsignedInt(b) << 16;
-            pixels[output++] = Byte.toUnsignedInt(r) << 16;
+            pixels[output++] = b;
+            pixels[output++] = g;
+            pixels[output++] = r;
         }
 
         return result;
     }
+
+    /**
+     * Converts headerless grey pixels, as found after the P5 header or as delivered by ffmpeg's rawvideo gray
+     * output, into a monochrome image.
+     */
+    public static BytePixels readGray8(String name, int width, int height, ByteBuffer imageBytes, int offset) {
+        BytePixels result = new BytePixels(name, width, height, true);
+
+        ByteBuffer source = imageBytes.duplicate();
+        source.position(offset);
+        source.get(result.getPixels());
+
+        return result;
+    }
+
+    /**
+     * Reads headerless RGB or grey pixels and scales them down by averaging divisor*divisor blocks in the same pass,
+     * the RGB to BGR reorder also happens in this pass, so the full resolution image is never materialised.
+     *
+     * The result is identical to reading the full image and calling BytePixels.scale(divisor) on it.
+     *
+     * @param channels 3 for rgb24 or 1 for gray
+     * @param offset The position of the first pixel in the buffer
+     * @param divisor The number of pixels in each direction that are averaged into one output pixel
+     */
+    public static BytePixels readScaled(String name, int width, int height, int channels, ByteBuffer imageBytes, int offset, int divisor) {
+        BytePixels result = new BytePixels(name+"_"+divisor, width/divisor, height/divisor, channels == 1);
+        readScaled(width, channels, imageBytes, offset, divisor, result);
+        return result;
+    }
+
+    /**
+     * Like readScaled, but writes into an existing image, which must be width/divisor by height/divisor pixels,
+     * so the caller can reuse the same buffer for every frame.
+     *
+     * Each block is summed on its own, so no scratch space is needed either, the divisor rows of a block are
+     * small enough to stay in the cache while the blocks along them are summed.
+     */
+    public static void readScaled(int width, int channels, ByteBuffer imageBytes, int offset, int divisor, BytePixels result) {
+        if (result.getChannels() != channels) {
+            throw new IllegalArgumentException("Cannot scale "+channels+" channels into "+result.getChannels()+" channels");
+        }
+
+        final byte[] pixels = result.getPixels();
+        final int inputSubWidth = width*channels;
+        final int inputPixelsPerOutputPixel = divisor*divisor;
+        final int blockSubWidth = divisor*channels;
+
+        int output = 0;
+        for (int blockY=0;blockY<result.getHeight();blockY++) {
+            final int blockRow = offset + blockY*divisor*inputSubWidth;
+            for (int blockX=0;blockX<result.getWidth();blockX++) {
+                final int block = blockRow + blockX*blockSubWidth;
+                if (channels == 3) {
+                    int r = 0;
+                    int g = 0;
+                    int b = 0;
+                    for (int y=0;y<divisor;y++) {
+                        int input = block + y*inputSubWidth;
+                        for (int x=0;x<divisor;x++) {
+                            r += imageBytes.get(input++) & 0xff;
+                            g += imageBytes.get(input++) & 0xff;
+                            b += imageBytes.get(input++) & 0xff;
+                        }
+                    }
+                    pixels[output++] = (byte)(b / inputPixelsPerOutputPixel);
+                    pixels[output++] = (byte)(g / inputPixelsPerOutputPixel);
+                    pixels[output++] = (byte)(r / inputPixelsPerOutputPixel);
+                } else {
+                    int grey = 0;
+                    for (int y=0;y<divisor;y++) {
+                        int input = block + y*inputSubWidth;
+                        for (int x=0;x<divisor;x++) {
+                            grey += imageBytes.get(input++) & 0xff;
+                        }
+                    }
+                    pixels[output++] = (byte)(grey / inputPixelsPerOutputPixel);
+                }
+            }
+        }
+    }
+
+    /**
+     * The interesting bits of a PNM header
+     */
+    @RequiredArgsConstructor
+    @Getter
+    public static class Header {
+        private final int width;
+        private final int height;
+        private final int channels;
+
+        /**
+         * The position of the first pixel
+         */
+        private final int offset;
+    }
 }
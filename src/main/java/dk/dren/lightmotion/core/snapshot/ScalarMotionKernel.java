@@ -0,0 +1,52 @@
+package dk.dren.lightmotion.core.snapshot;
+
+/**
+ * The original single pass implementation, it keeps counters for the pixel and the diff grid and looks up every
+ * pixel in the spans, which is simple, but slow, it's kept as the reference the other kernels are checked against.
+ */
+public class ScalarMotionKernel implements MotionKernel {
+    @Override
+    public void detect(FixedPointPixels average, BytePixels other, LineSpans spans, int decayOrder,
+                       int xpitch, int ypitch, int diffWidth, int fromLine, int toLine, int[] diffSums) {
+        final int channels = average.isMonochrome() ? 1 : 3;
+        final byte[] otherPixels = other.getPixels();
+        final short[] averagePixels = average.getPixels();
+        final int inputSubWidth = average.getWidth() * channels;
+
+        int firstOutputPixelInLine = (fromLine/ypitch)*diffWidth;
+        int inputIndex = fromLine*inputSubWidth;
+        int ypixelsToGo = ypitch;
+        for (int inputY = fromLine ; inputY<toLine ; inputY++) {
+
+            int outputPixel = firstOutputPixelInLine;
+            int xpixelsToGo = xpitch;
+            int pixelX = 0;
+            int pixelToGo = channels;
+            for (int inputX = 0; inputX< inputSubWidth; inputX++) {
+                int diff = ((otherPixels[inputIndex] & 0xff) << FixedPointPixels.FRACTION_BITS) - averagePixels[inputIndex];
+
+                // Pixels outside the spans are ignored entirely, so their average isn't updated either
+                if (spans == null || spans.contains(pixelX, inputY)) {
+                    diffSums[outputPixel] += Math.abs(diff);
+                    averagePixels[inputIndex] += diff >> decayOrder;
+                }
+                if (--pixelToGo == 0) {
+                    pixelX++;
+                    pixelToGo = channels;
+                }
+
+                inputIndex++;
+
+                if (--xpixelsToGo == 0) {
+                    xpixelsToGo = xpitch;
+                    outputPixel++;
+                }
+            }
+
+            if (--ypixelsToGo == 0) {
+                ypixelsToGo = ypitch;
+                firstOutputPixelInLine += diffWidth;
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package dk.dren.lightmotion.core.snapshot;
+
+import dk.dren.lightmotion.core.events.EventSink;
+import dk.dren.lightmotion.core.events.LightMotionEventType;
+import dk.dren.lightmotion.db.entity.Camera;
+import dk.dren.lightmotion.db.entity.Event;
+
+/**
+ * Turns the SceneStatistics of each frame into WHITEOUT, BLACKOUT and GLOBAL_CHANGE events, which mean that the
+ * camera has been covered, blinded, turned or that the lights have been switched on or off.
+ *
+ * Each condition must hold for a few frames before it starts and be gone for a few frames before it ends, so a
+ * single odd frame doesn't cause a pair of events, the numbers of frames are scaled to the frame rate, so they cover
+ * the same time whatever the rate the camera is sampled at.
+ */
+public class SceneDetector {
+    /**
+     * The fraction of the pixels that must be in the darkest or brightest bucket of the histogram
+     */
+    private static final double OUT_FRACTION = 0.95;
+
+    /**
+     * The fraction of tiles that must change at once to count as a global change, and the fraction it must drop
+     * below again before the change is over.
+     */
+    private static final double GLOBAL_CHANGE_START = 0.75;
+    private static final double GLOBAL_CHANGE_END = 0.25;
+
+    private final Condition whiteout = new Condition(LightMotionEventType.WHITEOUT, 2, 5, "Mean luminance ", "");
+    private final Condition blackout = new Condition(LightMotionEventType.BLACKOUT, 2, 5, "Mean luminance ", "");
+    private final Condition globalChange = new Condition(LightMotionEventType.GLOBAL_CHANGE, 1, 5, "", "% of the image changed");
+
+    /**
+     * @param frameInterval The measured interval between the frames, in milliseconds
+     */
+    public void update(SceneStatistics scene, long frameInterval, Camera camera, EventSink sink) {
+        final int luminance = scene.getMeanLuminance();
+        whiteout.update(scene.getFractionInBucket(SceneStatistics.BUCKETS-1) >= OUT_FRACTION, frameInterval, camera, sink, luminance);
+        blackout.update(scene.getFractionInBucket(0) >= OUT_FRACTION, frameInterval, camera, sink, luminance);
+
+        final double changed = scene.getChangedFraction();
+        final boolean changing = globalChange.isActive() ? changed >= GLOBAL_CHANGE_END : changed >= GLOBAL_CHANGE_START;
+        globalChange.update(changing, frameInterval, camera, sink, Math.round(changed*100));
+    }
+
+    /**
+     * The text of the events is the value between the prefix and the suffix, it's only built when an event is sent
+     */
+    private static class Condition {
+        private final LightMotionEventType type;
+        private final int framesToStart;
+        private final int framesToEnd;
+        private final String prefix;
+        private final String suffix;
+        private boolean active;
+        private int frames;
+
+        Condition(LightMotionEventType type, int framesToStart, int framesToEnd, String prefix, String suffix) {
+            this.type = type;
+            this.framesToStart = framesToStart;
+            this.framesToEnd = framesToEnd;
+            this.prefix = prefix;
+            this.suffix = suffix;
+        }
+
+        boolean isActive() {
+            return active;
+        }
+
+        void update(boolean on, long frameInterval, Camera camera, EventSink sink, long value) {
+            if (on == active) {
+                frames = 0;
+                return;
+            }
+
+            if (++frames >= FrameRate.scaleFrames(active ? framesToEnd : framesToStart, frameInterval)) {
+                active = on;
+                frames = 0;
+                final String text = prefix + value + suffix;
+                sink.notify(active ? Event.start(type, camera, text) : Event.end(type, camera, text));
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package dk.dren.lightmotion.core.snapshot;
+
+import lombok.Getter;
+
+import java.util.Arrays;
+
+/**
+ * Whole-frame statistics gathered by the CoarseGate from the tile sums it already computes for every frame, so
+ * they cost a few operations per tile rather than another walk over the pixels.
+ *
+ * The mask is ignored, as a covered lens or a blinding light is just as bad in the masked parts of the image.
+ */
+@Getter
+public class SceneStatistics {
+    /**
+     * The histogram has this many buckets over the 0..255 range of luminance
+     */
+    public static final int BUCKETS = 16;
+
+    private final int[] histogram = new int[BUCKETS];
+    private long luminanceSum;
+    private int pixels;
+    private int changedTiles;
+    private int tiles;
+
+    void clear() {
+        Arrays.fill(histogram, 0);
+        luminanceSum = 0;
+        pixels = 0;
+        changedTiles = 0;
+        tiles = 0;
+    }
+
+    /**
+     * @param sum The sum of all the sub-pixels in the tile
+     * @param count The number of pixels in the tile
+     * @param channels The number of sub-pixels per pixel
+     * @param changed true if the tile differs from the background by more than the motion threshold
+     */
+    void addTile(int sum, int count, int channels, boolean changed) {
+        final int luminance = sum / (count*channels);
+        histogram[luminance * BUCKETS / 256] += count;
+        luminanceSum += sum / channels;
+        pixels += count;
+        tiles++;
+        if (changed) {
+            changedTiles++;
+        }
+    }
+
+    /**
+     * @return The mean luminance of the frame 0..255
+     */
+    public int getMeanLuminance() {
+        return pixels == 0 ? 0 : (int)(luminanceSum / pixels);
+    }
+
+    /**
+     * @return The fraction of the pixels that are in tiles with a mean luminance in the given bucket
+     */
+    public double getFractionInBucket(int bucket) {
+        return pixels == 0 ? 0 : (double)histogram[bucket] / pixels;
+    }
+
+    /**
+     * @return The fraction of the tiles that changed in the last frame
+     */
+    public double getChangedFraction() {
+        return tiles == 0 ? 0 : (double)changedTiles / tiles;
+    }
+}
@@ -0,0 +1,152 @@
+package dk.dren.lightmotion.core.snapshot;
+
+import lombok.Getter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * A snapshot on its way through the processors, the pixels are only decoded when a processor asks for them and
+ * only at the resolution it asks for.
+ *
+ * Motion detection only needs the image at detection resolution, which can be produced directly from the bytes of
+ * a PNM or raw frame without ever building the full resolution image, so the full image is only decoded if a
+ * processor explicitly needs it, for example to write debug output.
+ *
+ * Monochrome frames have already been scaled down to detection resolution by ffmpeg, so they are used as-is.
+ *
+ * Other formats, like the jpeg snapshots polled from cameras, are decoded by ImageIO with source subsampling, so
+ * the full resolution image isn't built for them either.
+ *
+ * The detection image of PNM and raw frames is written into a buffer from the FramePool of the camera, which is
+ * handed back by release() once all processors are done with the snapshot.
+ */
+public class SnapshotImage {
+    /**
+     * The subsampling done by the ImageIO decoder, the rest of the scaling is done by averaging, because sampling
+     * every 8th pixel directly lets so much noise through that the first minutes after startup see false motion.
+     */
+    private static final int DECODER_SUBSAMPLING = 2;
+
+    @Getter
+    private final String name;
+    private final ByteBuffer bytes;
+    private final PPMParser.Header header;
+    private final FramePool pool;
+
+    private BytePixels fullImage;
+    private BytePixels detectionImage;
+    private byte[] pooledPixels;
+    private long signature;
+    private boolean signed;
+
+    private SnapshotImage(String name, ByteBuffer bytes, PPMParser.Header header, FramePool pool) {
+        this.name = name;
+        this.bytes = bytes;
+        this.header = header;
+        this.pool = pool;
+    }
+
+    /**
+     * A snapshot in any format that ImageIO understands or PNM, which is parsed in place
+     */
+    public static SnapshotImage encoded(String name, ByteBuffer bytes, FramePool pool) {
+        return new SnapshotImage(name, bytes, PPMParser.isPNM(bytes) ? PPMParser.readHeader(bytes) : null, pool);
+    }
+
+    /**
+     * A headerless rgb24 or gray frame
+     */
+    public static SnapshotImage raw(String name, int width, int height, boolean monochrome, ByteBuffer bytes, FramePool pool) {
+        int channels = monochrome ? 1 : 3;
+        if (bytes.limit() != width*height*channels) {
+            throw new IllegalArgumentException("A raw "+width+"x"+height+"x"+channels+" frame cannot be "+bytes.limit()+" bytes");
+        }
+        return new SnapshotImage(name, bytes, new PPMParser.Header(width, height, channels, 0), pool);
+    }
+
+    /**
+     * @return The image at the full resolution of the snapshot, this is expensive, so only call it if really needed.
+     */
+    public BytePixels getFullImage() throws IOException {
+        if (fullImage == null) {
+            if (header == null) {
+                fullImage = BytePixels.readFromBuffer(name, bytes);
+            } else if (header.getChannels() == 3) {
+                fullImage = PPMParser.readRGB24(name, header.getWidth(), header.getHeight(), bytes, header.getOffset());
+            } else if (isWholeArray()) {
+                // A raw grey frame is already laid out exactly like a monochrome image, so just wrap it
+                fullImage = new BytePixels(name, header.getWidth(), header.getHeight(), true, bytes.array());
+            } else {
+                fullImage = PPMParser.readGray8(name, header.getWidth(), header.getHeight(), bytes, header.getOffset());
+            }
+        }
+        return fullImage;
+    }
+
+    private boolean isWholeArray() {
+        return header.getOffset() == 0 && bytes.hasArray() && bytes.arrayOffset() == 0 && bytes.array().length == bytes.limit();
+    }
+
+    /**
+     * @return The image scaled down to the resolution used for motion detection, the pixels may be reused for the
+     * next frame, so the image must not be kept around after processing the snapshot.
+     */
+    public BytePixels getDetectionImage() throws IOException {
+        if (detectionImage == null) {
+            if (header == null) {
+                if (fullImage != null) {
+                    detectionImage = fullImage.scale(MotionDetector.DETECTION_DOWNSCALE);
+                } else {
+                    detectionImage = BytePixels.readSubsampled(name, bytes, DECODER_SUBSAMPLING)
+                            .scale(MotionDetector.DETECTION_DOWNSCALE / DECODER_SUBSAMPLING);
+                }
+            } else if (header.getChannels() == 1) {
+                detectionImage = getFullImage();
+            } else {
+                int width = header.getWidth() / MotionDetector.DETECTION_DOWNSCALE;
+                int height = header.getHeight() / MotionDetector.DETECTION_DOWNSCALE;
+                boolean monochrome = header.getChannels() == 1;
+                pooledPixels = pool.acquire(width * height * header.getChannels());
+                detectionImage = new BytePixels(name, width, height, monochrome, pooledPixels);
+                PPMParser.readScaled(header.getWidth(), header.getChannels(), bytes, header.getOffset(),
+                        MotionDetector.DETECTION_DOWNSCALE, detectionImage);
+            }
+        }
+        return detectionImage;
+    }
+
+    /**
+     * @param signer The FrameSignature to sign the detection image with, if it isn't signed already
+     * @return The perceptual signature of the detection image
+     */
+    public long getSignature(FrameSignature signer) throws IOException {
+        if (!signed) {
+            signature = signer.sign(getDetectionImage());
+            signed = true;
+        }
+        return signature;
+    }
+
+    /**
+     * @return A checksum of the exact pixels of the detection image, unlike the signature this changes with the
+     * slightest bit of sensor noise, so only frames from a stream that has stopped will have the same checksum.
+     */
+    public long getChecksum() throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(getDetectionImage().getPixels());
+        return crc.getValue();
+    }
+
+    /**
+     * Hands any pooled buffers back to the pool, call this once all processors are done with the snapshot.
+     */
+    public void release() {
+        if (pooledPixels != null) {
+            pool.release(pooledPixels);
+            pooledPixels = null;
+        }
+        detectionImage = null;
+    }
+}
@@ -13,7 +13,10 @@ import org.apache.commons.io.FileUtils;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.FileOutputStream;
 import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Level;
@@ -36,6 +39,54 @@ public class SnapshotProcessingManager {
     private final EventSinkWithMotionConfigOracle owner;
     @Getter
     private final File workingDir;
+    @Getter
+    private final FramePool framePool = new FramePool();
+    @Getter
+    private final DebugCapture debugCapture;
+    @Getter
+    private final FrameRate frameRate = new FrameRate();
+
+    /**
+     * True while a processor has an open MOTION event, such a camera is sampled faster and processed first
+     */
+    @Getter
+    private volatile boolean motion;
+
+    public static final String SKIP_DISTANCE_PROPERTY = "snapshot.skip.distance";
+
+    /**
+     * Frames whose signature is at most this many bits from the last processed frame are not processed, the default
+     * of 0 only skips frames with the same signature, as a small moving object can flip a bit or two, which is set
+     * with -Dsnapshot.skip.distance
+     */
+    private static final int SKIP_DISTANCE = Integer.getInteger(SKIP_DISTANCE_PROPERTY, 0);
+
+    /**
+     * The largest number of frames skipped in a row, so the processors see at least every n+1th frame
+     */
+    private static final int MAX_SKIPPED_IN_A_ROW = 4;
+
+    /**
+     * The number of processed frames after an event before frames may be skipped again, MotionDetector needs
+     * a bit more than 10 quiet frames before it ends a motion event, both are scaled to the frame rate.
+     */
+    private static final int EVENT_HOLD = 12;
+
+    /**
+     * The number of identical frames in a row that means the stream is frozen, scaled to the frame rate
+     */
+    private static final int FROZEN_FRAMES = 50;
+
+    private final FrameSignature frameSignature = new FrameSignature();
+    private long lastProcessedSignature;
+    private boolean hasProcessedSignature;
+    private int skippedInARow;
+    private int processedSinceEvent;
+    @Getter
+    private long skippedFrames;
+    private long lastChecksum = -1;
+    private int identicalFrames;
+    private boolean frozen;
 
     public SnapshotProcessingManager(Camera camera, File workingDir, File stateDir, File preRecordDir, boolean storeSnapshots, EventSinkWithMotionConfigOracle owner) {
         this.camera = camera;
@@ -44,6 +95,7 @@ public class SnapshotProcessingManager {
         this.stateDir = stateDir;
         this.preRecordDir = preRecordDir;
         this.owner = owner;
+        debugCapture = DebugCapture.fromSystemProperties(camera.getName());
         try {
             FileUtils.forceMkdir(workingDir);
             if (snapshotsDir != null) {
@@ -76,28 +128,100 @@ public class SnapshotProcessingManager {
     }
 
     public void processSnapshot(String name, byte[] imageBytes) throws IOException {
+        processSnapshot(name, imageBytes, imageBytes.length);
+    }
+
+    /**
+     * Processes the first length bytes of imageBytes, so a pooled buffer that is larger than the image can be used.
+     */
+    public void processSnapshot(String name, byte[] imageBytes, int length) throws IOException {
         if (snapshotsDir != null) {
-            String mimeType = URLConnection.guessContentTypeFromStream(new ByteArrayInputStream(imageBytes));
+            String mimeType = URLConnection.guessContentTypeFromStream(new ByteArrayInputStream(imageBytes, 0, length));
             String type = "ppm";
             if (mimeType != null && mimeType.startsWith("image/")) {
                 type = mimeType.replaceAll("image/", "");
             }
-            FileUtils.writeByteArrayToFile(new File(snapshotsDir, name + "." + type), imageBytes);
+            FileUtils.writeByteArrayToFile(new File(snapshotsDir, name + "." + type), imageBytes, 0, length);
+        }
+
+        processImage(SnapshotImage.encoded(name, ByteBuffer.wrap(imageBytes, 0, length), framePool));
+    }
+
+    /**
+     * Processes an image that is already in memory, typically a ppm file mapped from the working dir,
+     * the image is parsed in place, so the bytes never get copied to the heap.
+     */
+    public void processSnapshot(String name, ByteBuffer imageBytes) throws IOException {
+        if (snapshotsDir != null) {
+            String type = PPMParser.isPNM(imageBytes) && imageBytes.get(1) == '5' ? "pgm" : "ppm";
+            try (FileChannel out = new FileOutputStream(new File(snapshotsDir, name + "." + type)).getChannel()) {
+                out.write(imageBytes.duplicate());
+            }
         }
 
+        processImage(SnapshotImage.encoded(name, imageBytes, framePool));
+    }
+
+    /**
+     * Processes a headerless rgb24 or gray frame, as read from the stdout of an ffmpeg process producing rawvideo.
+     *
+     * The pixel bytes must come from the framePool, they are handed back to it once the frame has been processed.
+     */
+    public void processRawFrame(String name, int width, int height, boolean monochrome, byte[] pixelBytes) throws IOException {
+        try {
+            if (snapshotsDir != null) {
+                try (FileOutputStream out = new FileOutputStream(new File(snapshotsDir, name + (monochrome ? ".pgm" : ".ppm")))) {
+                    out.write(((monochrome ? "P5" : "P6") + "\n" + width + " " + height + "\n255\n").getBytes("US-ASCII"));
+                    out.write(pixelBytes);
+                }
+            }
+
+            processImage(SnapshotImage.raw(name, width, height, monochrome, ByteBuffer.wrap(pixelBytes), framePool));
+        } finally {
+            framePool.release(pixelBytes);
+        }
+    }
 
+    /**
+     * Runs the snapshot through all the processors, the pixels are decoded by the processors as they need them
+     *
+     * Frames that look the same as the last processed frame are skipped, though never more than MAX_SKIPPED_IN_A_ROW
+     * in a row, so the processors still see a change that is too small to show in the signature, and never shortly
+     * after the processors have reported an event, as a moving object doesn't always change the signature and the
+     * processors need to see the quiet frames to tell when the event is over.
+     */
+    private void processImage(SnapshotImage image) {
         long t0 = System.currentTimeMillis();
-        final FixedPointPixels fixed = FixedPointPixels.readFromAnyBytes(name, imageBytes);
-        long duration = System.currentTimeMillis()-t0;
-        if (duration > 100) {
-            log.warning("Loaded " + name + " in " + duration + " ms");
+        try {
+            checkForFrozenStream(image.getChecksum());
+
+            long signature = image.getSignature(frameSignature);
+            if (hasProcessedSignature && processedSinceEvent > FrameRate.scaleFrames(EVENT_HOLD, frameRate.getMeasuredInterval()) && skippedInARow < MAX_SKIPPED_IN_A_ROW &&
+                    FrameSignature.distance(signature, lastProcessedSignature) <= SKIP_DISTANCE) {
+                skippedInARow++;
+                skippedFrames++;
+                image.release();
+                return;
+            }
+            skippedInARow = 0;
+            lastProcessedSignature = signature;
+            hasProcessedSignature = true;
+
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Failed to sign "+image.getName()+", processing it anyway", e);
         }
 
+        processedSinceEvent++;
         for (SnapshotProcessor processor : processors) {
             try {
-                Event event = processor.process(fixed);
+                Event event = processor.process(image);
                 if (event != null) {
                     owner.notify(event);
+                    processedSinceEvent = 0;
+                    if (event.getType() == LightMotionEventType.MOTION) {
+                        motion = !event.isCanceling();
+                        frameRate.setMotion(motion);
+                    }
                 }
 
             } catch (Exception e) {
@@ -105,5 +229,40 @@ public class SnapshotProcessingManager {
                 owner.notify(Event.start(LightMotionEventType.FAILED_PROCESSOR, camera, "Exception while running "+processor.getClass().getSimpleName()+": "+e.toString()));
             }
         }
+        image.release();
+        long duration = System.currentTimeMillis()-t0;
+        if (duration > 100) {
+            log.warning("Processed " + image.getName() + " in " + duration + " ms");
+        }
+    }
+
+    /**
+     * Closes the processors, the manager must not be given any more frames
+     */
+    public void close() {
+        for (SnapshotProcessor processor : processors) {
+            processor.close();
+        }
+    }
+
+    /**
+     * A stream that has stopped delivering new pictures, but still delivers frames, repeats the same pixels over and
+     * over, while even a static scene has enough sensor noise to change a few pixels from one frame to the next.
+     */
+    private void checkForFrozenStream(long checksum) {
+        if (checksum == lastChecksum) {
+            final int frozenFrames = FrameRate.scaleFrames(FROZEN_FRAMES, frameRate.getMeasuredInterval());
+            if (!frozen && ++identicalFrames >= frozenFrames) {
+                frozen = true;
+                owner.notify(Event.start(LightMotionEventType.FAILED_STREAM, camera, "The last "+frozenFrames+" frames were identical, the stream seems to be frozen"));
+            }
+        } else {
+            if (frozen) {
+                frozen = false;
+                owner.notify(Event.end(LightMotionEventType.FAILED_STREAM, camera, "The stream is delivering new frames again"));
+            }
+            identicalFrames = 0;
+        }
+        lastChecksum = checksum;
     }
 }
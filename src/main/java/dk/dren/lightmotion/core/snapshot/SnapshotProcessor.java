@@ -2,9 +2,21 @@ package dk.dren.lightmotion.core.snapshot;
 
 import dk.dren.lightmotion.db.entity.Event;
 
+import java.io.IOException;
+
 /**
  * The interface the different snapshot processors must implement
  */
 public interface SnapshotProcessor {
-    Event process(FixedPointPixels image);
+    /**
+     * @param image The snapshot to process, ask it for the pixels at the lowest resolution that will do
+     * @return An event or null if nothing happened
+     */
+    Event process(SnapshotImage image) throws IOException;
+
+    /**
+     * Called when the camera is stopped, to let go of anything registered outside of the processor
+     */
+    default void close() {
+    }
 }
@@ -0,0 +1,56 @@
+package dk.dren.lightmotion.core.snapshot;
+
+/**
+ * Processes only the runs of each line given by the LineSpans, like the unmasked pixels compiled by BitPixels, so
+ * masked pixels and the lines outside the bounding box cost nothing at all, a heavily masked camera gets
+ * proportionally cheaper.
+ *
+ * Each run is cut where it crosses into the next diff pixel and the piece inside a diff pixel is a plain counted
+ * loop without branches or extra counters, which is the shape the JIT needs to turn a loop into SIMD instructions.
+ *
+ * The result is bit-identical to ScalarMotionKernel, as only the order of the integer additions changes.
+ */
+public class SpanMotionKernel implements MotionKernel {
+
+    @Override
+    public void detect(FixedPointPixels average, BytePixels other, LineSpans spans, int decayOrder,
+                       int xpitch, int ypitch, int diffWidth, int fromLine, int toLine, int[] diffSums) {
+        final int channels = average.isMonochrome() ? 1 : 3;
+        final byte[] otherPixels = other.getPixels();
+        final short[] averagePixels = average.getPixels();
+        final int inputSubWidth = average.getWidth() * channels;
+        final int top = spans == null ? fromLine : Math.max(fromLine, spans.getTop());
+        final int bottom = spans == null ? toLine : Math.min(toLine, spans.getBottom());
+
+        for (int inputY = top ; inputY<bottom ; inputY++) {
+            final int lineStart = inputY*inputSubWidth;
+            final int firstOutputPixelInLine = (inputY/ypitch)*diffWidth;
+
+            if (spans == null) {
+                detectRun(otherPixels, averagePixels, decayOrder, xpitch, lineStart, 0, inputSubWidth, diffSums, firstOutputPixelInLine);
+            } else {
+                final int[] line = spans.getSpans(inputY);
+                final int length = spans.getLength(inputY);
+                for (int span = 0; span < length; span += 2) {
+                    detectRun(otherPixels, averagePixels, decayOrder, xpitch, lineStart, line[span]*channels, line[span+1]*channels, diffSums, firstOutputPixelInLine);
+                }
+            }
+        }
+    }
+
+    private static void detectRun(byte[] otherPixels, short[] averagePixels, int decayOrder, int xpitch,
+                                  int lineStart, int x, int end, int[] diffSums, int firstOutputPixelInLine) {
+        while (x < end) {
+            final int outputX = x / xpitch;
+            final int cellEnd = Math.min(end, (outputX+1)*xpitch);
+            int sum = 0;
+            for (int i = lineStart+x; i < lineStart+cellEnd; i++) {
+                int diff = ((otherPixels[i] & 0xff) << FixedPointPixels.FRACTION_BITS) - averagePixels[i];
+                sum += Math.abs(diff);
+                averagePixels[i] += diff >> decayOrder;
+            }
+            diffSums[firstOutputPixelInLine+outputX] += sum;
+            x = cellEnd;
+        }
+    }
+}
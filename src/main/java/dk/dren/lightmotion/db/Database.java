@@ -51,8 +51,8 @@ public interface Database {
     @SqlQuery(MotionConfigMapper.SQL)
     List<MotionConfig> getAllMotionConfigs();
 
-    @SqlUpdate("insert into motion_config (name, motion_threshold, chunks_before_event, chunks_after_event) " +
-            "values ('Default Motion Config', 40, 2, 2)")
+    @SqlUpdate("insert into motion_config (name, motion_threshold, chunks_before_event, chunks_after_event, min_blob_area, noise_deviations) " +
+            "values ('Default Motion Config', 40, 2, 2, 1, 2)")
     @GetGeneratedKeys
     int createDefaultMotionConfig();
 
@@ -17,4 +17,16 @@ public class MotionConfig {
     private final int motionThreshold;
     private final int chunksBeforeEvent;
     private final int chunksAfterEvent;
+
+    /**
+     * The smallest blob of diff pixels above the threshold that counts as motion, in diff pixels, each diff pixel
+     * covers 16x16 camera pixels.
+     */
+    private final int minBlobArea;
+
+    /**
+     * The number of standard deviations of its own noise a diff pixel must be above the mean noise to count, so
+     * noisy parts of the image, like foliage or rain, need a bigger change than quiet parts, 0 only uses the mean.
+     */
+    private final int noiseDeviations;
 }
@@ -11,7 +11,7 @@ import java.sql.SQLException;
  * Turns a row from the motion_config table into a MotionConfig object
  */
 public class MotionConfigMapper implements ResultSetMapper<MotionConfig> {
-    public static final String SQL = "select id, created, name, motion_threshold, chunks_before_event, chunks_after_event from motion_config ";
+    public static final String SQL = "select id, created, name, motion_threshold, chunks_before_event, chunks_after_event, min_blob_area, noise_deviations from motion_config ";
 
     @Override
     public MotionConfig map(int i, ResultSet resultSet, StatementContext statementContext) throws SQLException {
@@ -21,7 +21,9 @@ public class MotionConfigMapper implements ResultSetMapper<MotionConfig> {
                 resultSet.getString("name"),
                 resultSet.getInt("motion_threshold"),
                 resultSet.getInt("chunks_before_event"),
-                resultSet.getInt("chunks_after_event")
+                resultSet.getInt("chunks_after_event"),
+                resultSet.getInt("min_blob_area"),
+                resultSet.getInt("noise_deviations")
         );
     }
 }
@@ -52,6 +52,14 @@ public class ONVIFCamera {
     }
 
     public ONVIFCamera(String cameraAddressAndPort, String user, String password) throws SOAPException, IOException, SAXException {
+        this(cameraAddressAndPort, user, password, null);
+    }
+
+    /**
+     * @param resolve The numbers of the profiles to look up the uris of, null means all of them, each profile costs
+     *                two calls to the camera, so there's no point in resolving the ones that aren't going to be used.
+     */
+    public ONVIFCamera(String cameraAddressAndPort, String user, String password, Set<Integer> resolve) throws SOAPException, IOException, SAXException {
         try {
             PARSER = newInstance().newDocumentBuilder();
         } catch (ParserConfigurationException e) {
@@ -68,8 +76,10 @@ public class ONVIFCamera {
             log.info("Got profiles from "+cameraAddressAndPort);
             int i = 0;
             for (ONVIFProfile p : profiles) {
-                p.setSnapshotUri(callGetSnapshotUri(client, p.getToken()));
-                p.setStreamUrl(callGetStreamUri(client, p.getToken()));
+                if (resolve == null || resolve.contains(i)) {
+                    p.setSnapshotUri(callGetSnapshotUri(client, p.getToken()));
+                    p.setStreamUrl(callGetStreamUri(client, p.getToken()));
+                }
 
                 log.info("Profile #" + i++ + ": " + p+" stream="+p.getStreamUrl()+" snap="+p.getSnapshotUri());
             }
@@ -1,13 +1,17 @@
 package dk.dren.lightmotion.onvif;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.Setter;
 import org.w3c.dom.Element;
 
 /**
- * The interesting bits of a profile
+ * The interesting bits of a profile, these are what ONVIFProfileCache stores
  */
 @Getter
+@EqualsAndHashCode
 public class ONVIFProfile {
     private final String token;
     private final Integer framerate;
@@ -26,6 +30,21 @@ public class ONVIFProfile {
         height    = ONVIFCamera.xmlInt(e, "VideoEncoderConfiguration", "Resolution", "Height");
     }
 
+    @JsonCreator
+    public ONVIFProfile(@JsonProperty("token") String token,
+                        @JsonProperty("framerate") Integer framerate,
+                        @JsonProperty("width") Integer width,
+                        @JsonProperty("height") Integer height,
+                        @JsonProperty("streamUrl") String streamUrl,
+                        @JsonProperty("snapshotUri") String snapshotUri) {
+        this.token = token;
+        this.framerate = framerate;
+        this.width = width;
+        this.height = height;
+        this.streamUrl = streamUrl;
+        this.snapshotUri = snapshotUri;
+    }
+
     @Override
     public String toString() {
         return "ONVIFProfile{" +
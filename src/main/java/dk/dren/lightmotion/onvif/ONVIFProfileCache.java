@@ -0,0 +1,76 @@
+package dk.dren.lightmotion.onvif;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.Getter;
+import lombok.extern.java.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Objects;
+
+/**
+ * The profiles of a camera as resolved the last time the camera was interrogated, so streaming can start right away
+ * at the next start, without waiting for the calls to the camera, which can take a while, or forever if the camera
+ * is unreachable.
+ *
+ * The cache is only valid for the address and profile numbers it was resolved for.
+ */
+@Log
+@Getter
+public class ONVIFProfileCache {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final String address;
+    private final int profileNumber;
+    private final int lowResProfileNumber;
+    private final ONVIFProfile highres;
+    private final ONVIFProfile lowres;
+
+    @JsonCreator
+    public ONVIFProfileCache(@JsonProperty("address") String address,
+                             @JsonProperty("profileNumber") int profileNumber,
+                             @JsonProperty("lowResProfileNumber") int lowResProfileNumber,
+                             @JsonProperty("highres") ONVIFProfile highres,
+                             @JsonProperty("lowres") ONVIFProfile lowres) {
+        this.address = address;
+        this.profileNumber = profileNumber;
+        this.lowResProfileNumber = lowResProfileNumber;
+        this.highres = highres;
+        this.lowres = lowres;
+    }
+
+    /**
+     * @return true if the cache was resolved for the camera as it's configured now
+     */
+    public boolean isFor(String address, int profileNumber, int lowResProfileNumber) {
+        return Objects.equals(this.address, address) && this.profileNumber == profileNumber && this.lowResProfileNumber == lowResProfileNumber;
+    }
+
+    /**
+     * @return The cached profiles, or null if there are none or they cannot be read
+     */
+    public static ONVIFProfileCache read(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            return MAPPER.readValue(file, ONVIFProfileCache.class);
+        } catch (IOException e) {
+            log.warning("Ignoring the unreadable ONVIF profile cache "+file+": "+e);
+            return null;
+        }
+    }
+
+    /**
+     * Writes the cache to a temporary file first, so a crash never leaves a half written cache behind
+     */
+    public void write(File file) throws IOException {
+        File tmp = new File(file.getParentFile(), file.getName()+".tmp");
+        MAPPER.writerWithDefaultPrettyPrinter().writeValue(tmp, this);
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
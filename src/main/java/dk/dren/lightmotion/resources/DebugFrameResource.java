@@ -0,0 +1,58 @@
+package dk.dren.lightmotion.resources;
+
+import com.codahale.metrics.annotation.Timed;
+import dk.dren.lightmotion.core.CameraManager;
+import dk.dren.lightmotion.core.LightMotion;
+import dk.dren.lightmotion.core.snapshot.DebugCapture;
+import dk.dren.lightmotion.core.snapshot.DebugFrame;
+import dk.dren.lightmotion.core.snapshot.SnapshotProcessingManager;
+import lombok.RequiredArgsConstructor;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.NotFoundException;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import java.util.List;
+
+/**
+ * Serves the debug composites the motion detector of each camera keeps in memory, see DebugCapture for how to
+ * turn them on.
+ */
+@Path("/camera/{cameraId}/debug")
+@RequiredArgsConstructor
+public class DebugFrameResource {
+    private final LightMotion lightMotion;
+
+    /**
+     * @return The composites in memory, oldest first, without the images
+     */
+    @GET
+    @Timed
+    @Produces(MediaType.APPLICATION_JSON)
+    public List<DebugFrame> list(@PathParam("cameraId") long cameraId) {
+        return getDebugCapture(cameraId).getFrames();
+    }
+
+    @GET
+    @Timed
+    @Path("/{key}")
+    @Produces("image/png")
+    public byte[] get(@PathParam("cameraId") long cameraId, @PathParam("key") String key) {
+        DebugFrame frame = getDebugCapture(cameraId).getFrame(key);
+        if (frame == null) {
+            throw new NotFoundException("The debug frame "+key+" is not in memory");
+        }
+        return frame.getPng();
+    }
+
+    private DebugCapture getDebugCapture(long cameraId) {
+        CameraManager cameraManager = lightMotion.getCameraManager(cameraId);
+        SnapshotProcessingManager spm = cameraManager == null ? null : cameraManager.getSnapshotProcessingManager();
+        if (spm == null) {
+            throw new NotFoundException("The camera "+cameraId+" is not running");
+        }
+        return spm.getDebugCapture();
+    }
+}
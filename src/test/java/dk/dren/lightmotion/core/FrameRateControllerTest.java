@@ -0,0 +1,26 @@
+package dk.dren.lightmotion.core;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FrameRateControllerTest {
+
+    @Test
+    public void quietCamerasSlowDownUnderLoadAndRecover() {
+        Assert.assertEquals(FrameRateController.Load.OVERLOADED, FrameRateController.load(0.9, 0));
+        Assert.assertEquals(FrameRateController.Load.OVERLOADED, FrameRateController.load(0.3, 2));
+        Assert.assertEquals(FrameRateController.Load.NORMAL, FrameRateController.load(0.6, 0));
+        Assert.assertEquals(FrameRateController.Load.UNDERLOADED, FrameRateController.load(0.1, 0));
+
+        long interval = 1000;
+        for (int i=0;i<5;i++) {
+            interval = FrameRateController.nextQuietInterval(interval, FrameRateController.Load.OVERLOADED, 1000, 4000);
+        }
+        Assert.assertEquals(4000, interval);
+        Assert.assertEquals(4000, FrameRateController.nextQuietInterval(interval, FrameRateController.Load.NORMAL, 1000, 4000));
+        for (int i=0;i<5;i++) {
+            interval = FrameRateController.nextQuietInterval(interval, FrameRateController.Load.UNDERLOADED, 1000, 4000);
+        }
+        Assert.assertEquals(1000, interval);
+    }
+}
@@ -0,0 +1,135 @@
+package dk.dren.lightmotion.core;
+
+import dk.dren.lightmotion.core.snapshot.SnapshotProcessingManager;
+import dk.dren.lightmotion.core.snapshot.TestEventSink;
+import dk.dren.lightmotion.db.entity.Camera;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class MotionWorkersTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void mostExpensiveCamerasAreSpreadFirst() {
+        int[] workers = MotionWorkers.distribute(new long[]{10, 70, 20, 60}, 2);
+        Assert.assertNotEquals(workers[1], workers[3]);
+        Assert.assertEquals(workers[1], workers[0]);
+        Assert.assertEquals(workers[3], workers[2]);
+    }
+
+    @Test
+    public void eachCameraStaysOnOneWorker() throws Exception {
+        MotionWorkers workers = new MotionWorkers(2, 2000);
+        workers.start();
+        try {
+            Map<String, Set<String>> threadsPerCamera = new ConcurrentHashMap<>();
+            AtomicInteger processed = new AtomicInteger();
+            List<SnapshotProcessingManager> spms = new ArrayList<>();
+            for (int c=0;c<3;c++) {
+                SnapshotProcessingManager spm = spm("cam"+c);
+                spms.add(spm);
+                workers.register(spm);
+                for (int frame=0;frame<5;frame++) {
+                    workers.offer(new CameraSnapshot() {
+                        @Override
+                        public SnapshotProcessingManager getSnapshotProcessingManager() {
+                            return spm;
+                        }
+
+                        @Override
+                        public String getName() {
+                            return spm.getCamera().getName();
+                        }
+
+                        @Override
+                        public void processSnapshot() {
+                            threadsPerCamera.computeIfAbsent(getName(), n -> ConcurrentHashMap.newKeySet()).add(Thread.currentThread().getName());
+                            processed.incrementAndGet();
+                        }
+                    });
+                }
+            }
+
+            // Every frame is either processed or replaced by a newer one, the last frame of each camera is processed
+            long deadline = System.currentTimeMillis() + 10000;
+            while (processed.get() + workers.getReplacedFrames() < 3*5 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(3*5, processed.get() + workers.getReplacedFrames());
+            Assert.assertEquals(workers.getReplacedFrames(), workers.getDroppedFrames());
+            for (SnapshotProcessingManager spm : spms) {
+                Assert.assertTrue(workers.getMailbox(spm).getProcessed() >= 1);
+            }
+
+            Assert.assertEquals(3, threadsPerCamera.size());
+            for (Set<String> threads : threadsPerCamera.values()) {
+                Assert.assertEquals(1, threads.size());
+            }
+        } finally {
+            workers.stop();
+        }
+    }
+
+    @Test
+    public void framesOfUnregisteredCamerasAreDropped() throws Exception {
+        MotionWorkers workers = new MotionWorkers(1, 2000);
+        SnapshotProcessingManager spm = spm("gone");
+        AtomicInteger released = new AtomicInteger();
+        workers.register(spm);
+        for (int frame=0;frame<3;frame++) {
+            workers.offer(snapshot(spm, released));
+        }
+        Assert.assertEquals(2, workers.getReplacedFrames());
+
+        workers.unregister(spm);
+        Assert.assertEquals(2, workers.getReplacedFrames());
+        Assert.assertEquals(3, workers.getDroppedFrames());
+        Assert.assertEquals(3, released.get());
+
+        // A frame that was already on its way when the camera was stopped doesn't bring it back
+        workers.offer(snapshot(spm, released));
+        Assert.assertNull(workers.getMailbox(spm));
+        Assert.assertEquals(4, workers.getDroppedFrames());
+        Assert.assertEquals(4, released.get());
+    }
+
+    private static CameraSnapshot snapshot(SnapshotProcessingManager spm, AtomicInteger released) {
+        return new CameraSnapshot() {
+            @Override
+            public SnapshotProcessingManager getSnapshotProcessingManager() {
+                return spm;
+            }
+
+            @Override
+            public String getName() {
+                return spm.getCamera().getName();
+            }
+
+            @Override
+            public void processSnapshot() {
+            }
+
+            @Override
+            public void release() {
+                released.incrementAndGet();
+            }
+        };
+    }
+
+    private SnapshotProcessingManager spm(String name) throws Exception {
+        File dir = folder.newFolder(name);
+        Camera camera = new Camera(1L, null, name, null, null, null, 0,0, false, null);
+        return new SnapshotProcessingManager(camera, new File(dir, "work"), new File(dir, "state"), new File(dir, "pre"), false, new TestEventSink());
+    }
+}
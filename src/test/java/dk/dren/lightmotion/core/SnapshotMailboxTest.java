@@ -0,0 +1,77 @@
+package dk.dren.lightmotion.core;
+
+import dk.dren.lightmotion.core.snapshot.SnapshotProcessingManager;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class SnapshotMailboxTest {
+
+    @Test
+    public void newestSnapshotReplacesTheWaitingOne() {
+        List<String> released = new ArrayList<>();
+        SnapshotMailbox mailbox = new SnapshotMailbox();
+
+        Assert.assertFalse(mailbox.put(snapshot("a", released)));
+        Assert.assertTrue(mailbox.put(snapshot("b", released)));
+        Assert.assertTrue(mailbox.put(snapshot("c", released)));
+
+        Assert.assertEquals("c", mailbox.take().getName());
+        Assert.assertNull(mailbox.take());
+        Assert.assertEquals(2, mailbox.getReplaced());
+        Assert.assertEquals(1, mailbox.getProcessed());
+        Assert.assertEquals(2, released.size());
+        Assert.assertEquals("a", released.get(0));
+        Assert.assertEquals("b", released.get(1));
+
+        mailbox.put(snapshot("d", released));
+        mailbox.clear();
+        Assert.assertNull(mailbox.take());
+        Assert.assertEquals(2, mailbox.getReplaced());
+        Assert.assertEquals(3, mailbox.getDropped());
+    }
+
+    @Test
+    public void replacingKeepsTheWaitingTime() throws Exception {
+        List<String> released = new ArrayList<>();
+        SnapshotMailbox mailbox = new SnapshotMailbox();
+        Assert.assertFalse(mailbox.isWaiting());
+
+        mailbox.put(snapshot("a", released));
+        long since = mailbox.getWaitingSince();
+        Thread.sleep(5);
+        mailbox.put(snapshot("b", released));
+        Assert.assertTrue(mailbox.isWaiting());
+        Assert.assertEquals(since, mailbox.getWaitingSince());
+
+        mailbox.take();
+        Assert.assertFalse(mailbox.isWaiting());
+        mailbox.put(snapshot("c", released));
+        Assert.assertTrue(mailbox.getWaitingSince() > since);
+    }
+
+    private CameraSnapshot snapshot(String name, List<String> released) {
+        return new CameraSnapshot() {
+            @Override
+            public SnapshotProcessingManager getSnapshotProcessingManager() {
+                return null;
+            }
+
+            @Override
+            public String getName() {
+                return name;
+            }
+
+            @Override
+            public void processSnapshot() {
+            }
+
+            @Override
+            public void release() {
+                released.add(name);
+            }
+        };
+    }
+}
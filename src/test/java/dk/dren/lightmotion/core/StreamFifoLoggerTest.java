@@ -0,0 +1,32 @@
+package dk.dren.lightmotion.core;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public class StreamFifoLoggerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void keepsTheLastLinesOnceTheProcessQuits() throws Exception {
+        File file = new File(folder.getRoot(), "ffmpeg.err");
+        Process process = new ProcessBuilder("printf", "one\\ntwo\\rthree\\r\\nfour\\nfive").start();
+        StreamFifoLogger.glom(process, process.getInputStream(), file, 30000, 3);
+        process.waitFor();
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!file.exists() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        Thread.sleep(100); // The file is written in one go, but may still be open
+
+        Assert.assertEquals(Arrays.asList("three", "four", "five"), FileUtils.readLines(file, StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,35 @@
+package dk.dren.lightmotion.core.snapshot;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+
+public class BitPixelsTest {
+
+    @Test
+    public void compilesSpansAndBoundingBox() {
+        BufferedImage bi = new BufferedImage(6, 4, BufferedImage.TYPE_BYTE_GRAY);
+        byte[] pixels = ((DataBufferByte) bi.getRaster().getDataBuffer()).getData();
+        byte w = (byte)0xff;
+        System.arraycopy(new byte[]{
+                0, 0, 0, 0, 0, 0,
+                w, w, 0, 0, w, 0,
+                0, w, w, w, w, w,
+                0, 0, 0, 0, 0, 0,
+        }, 0, pixels, 0, pixels.length);
+
+        BitPixels mask = new BitPixels(bi);
+        LineSpans spans = mask.getLineSpans();
+        Assert.assertEquals(1, spans.getTop());
+        Assert.assertEquals(3, spans.getBottom());
+        Assert.assertArrayEquals(new int[0], spans.getSpans(0));
+        Assert.assertArrayEquals(new int[]{0, 2, 4, 5}, spans.getSpans(1));
+        Assert.assertArrayEquals(new int[]{1, 6}, spans.getSpans(2));
+        Assert.assertTrue(spans.contains(4, 1));
+        Assert.assertFalse(spans.contains(5, 1));
+        Assert.assertTrue(mask.isBlack(2*6));
+        Assert.assertFalse(mask.isBlack(2*6+1));
+    }
+}
@@ -0,0 +1,65 @@
+package dk.dren.lightmotion.core.snapshot;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+public class BlobExtractorTest {
+
+    private static FixedPointPixels diff(String... lines) {
+        FixedPointPixels diff = new FixedPointPixels("diff", lines[0].length(), lines.length, true);
+        short[] pixels = diff.getPixels();
+        for (int y=0;y<lines.length;y++) {
+            for (int x=0;x<lines[y].length();x++) {
+                pixels[y*diff.getWidth()+x] = (short)(lines[y].charAt(x) == '#' ? 50 << FixedPointPixels.FRACTION_BITS : 0);
+            }
+        }
+        return diff;
+    }
+
+    @Test
+    public void findsSeparateBlobs() {
+        FixedPointPixels diff = diff(
+                "#.......",
+                "....##..",
+                "...###..",
+                "....#...");
+        List<Blob> blobs = new BlobExtractor(8, 4).extract(diff, 40, 1);
+        Assert.assertEquals(2, blobs.size());
+
+        Blob big = blobs.get(0);
+        Assert.assertEquals(6, big.getArea());
+        Assert.assertEquals(3, big.getLeft());
+        Assert.assertEquals(1, big.getTop());
+        Assert.assertEquals(5, big.getRight());
+        Assert.assertEquals(3, big.getBottom());
+        Assert.assertEquals(25.0/6, big.getCentroidX(), 1e-9);
+        Assert.assertEquals(11.0/6, big.getCentroidY(), 1e-9);
+
+        Assert.assertEquals(1, blobs.get(1).getArea());
+    }
+
+    @Test
+    public void joinsBranchesThatMeetLater() {
+        FixedPointPixels diff = diff(
+                "#...#",
+                "#...#",
+                "#####");
+        List<Blob> blobs = new BlobExtractor(5, 3).extract(diff, 40, 1);
+        Assert.assertEquals(1, blobs.size());
+        Assert.assertEquals(9, blobs.get(0).getArea());
+        Assert.assertEquals(0, blobs.get(0).getTop());
+        Assert.assertEquals(4, blobs.get(0).getRight());
+    }
+
+    @Test
+    public void smallBlobsAreIgnored() {
+        FixedPointPixels diff = diff(
+                "#..##",
+                "...##");
+        BlobExtractor extractor = new BlobExtractor(5, 2);
+        Assert.assertEquals(1, extractor.extract(diff, 40, 2).size());
+        Assert.assertEquals(0, extractor.extract(diff, 60, 1).size());
+    }
+}
@@ -0,0 +1,93 @@
+package dk.dren.lightmotion.core.snapshot;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class CoarseGateTest {
+
+    private static BytePixels grey(int value) {
+        BytePixels image = new BytePixels("grey", 16, 8, true);
+        Arrays.fill(image.getPixels(), (byte)value);
+        return image;
+    }
+
+    @Test
+    public void onlyChangedTilesAreActive() {
+        BytePixels quiet = grey(100);
+        CoarseGate gate = new CoarseGate(quiet);
+
+        LineSpans spans = null;
+        for (int i=0;i<10;i++) {
+            spans = gate.update(quiet, null, 20, 4);
+        }
+        Assert.assertEquals(0, gate.getActiveTiles());
+        Assert.assertEquals(spans.getTop(), spans.getBottom());
+
+        BytePixels moving = grey(100);
+        for (int y=4;y<8;y++) {
+            for (int x=8;x<12;x++) {
+                moving.getPixels()[y*16+x] = (byte)200;
+            }
+        }
+        spans = gate.update(moving, null, 20, 4);
+        Assert.assertEquals(1, gate.getActiveTiles());
+        Assert.assertTrue(gate.isActive(9, 5));
+        Assert.assertFalse(gate.isActive(1, 5));
+        Assert.assertEquals(4, spans.getTop());
+        Assert.assertEquals(8, spans.getBottom());
+        Assert.assertArrayEquals(new int[]{8, 12}, Arrays.copyOf(spans.getSpans(4), spans.getLength(4)));
+    }
+
+    @Test
+    public void quietTilesCatchUp() {
+        BytePixels start = grey(100);
+        CoarseGate gate = new CoarseGate(start);
+        FixedPointPixels average = new FixedPointPixels("average", start);
+
+        // A change too small to wake the tiles up, so the fine average only follows it through the catch-up
+        BytePixels drifted = grey(102);
+        for (int i=0;i<CoarseGate.CATCH_UP_INTERVAL+4;i++) {
+            gate.update(drifted, null, 20, 4);
+            gate.catchUp(average, drifted, 4);
+        }
+        Assert.assertEquals(0, gate.getActiveTiles());
+        Assert.assertTrue(average.getPixels()[0] > 100 << FixedPointPixels.FRACTION_BITS);
+    }
+
+    @Test
+    public void wakingTilesCatchUpFromTheLastQuietFrame() {
+        BytePixels start = grey(100);
+        CoarseGate gate = new CoarseGate(start);
+        FixedPointPixels average = new FixedPointPixels("average", start);
+
+        BytePixels drifted = grey(102);
+        for (int i=0;i<HOLD_AND_A_FEW;i++) {
+            gate.update(drifted, null, 20, 4);
+            gate.catchUp(average, drifted, 4);
+        }
+        final int stale = average.getPixels()[5*16+9];
+
+        BytePixels moving = grey(102);
+        for (int y=4;y<8;y++) {
+            for (int x=8;x<12;x++) {
+                moving.getPixels()[y*16+x] = (byte)200;
+            }
+        }
+        gate.update(moving, null, 20, 4);
+        gate.catchUp(average, moving, 4);
+
+        // The waking tile got the missed updates towards the quiet 102, not towards the 200 of the moving object
+        final int woken = average.getPixels()[5*16+9];
+        Assert.assertTrue(woken > stale);
+        Assert.assertTrue(woken <= 102 << FixedPointPixels.FRACTION_BITS);
+        // The tiles that are still quiet wait for the regular catch-up
+        Assert.assertEquals(stale, average.getPixels()[5*16+1]);
+    }
+
+    /**
+     * Long enough for the initial hold to run out, but not long enough for the regular catch-up
+     */
+    private static final int HOLD_AND_A_FEW = 8;
+}
@@ -0,0 +1,66 @@
+package dk.dren.lightmotion.core.snapshot;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+public class DebugCaptureTest {
+
+    @Test
+    public void sampling() {
+        DebugCapture motion = new DebugCapture("test", null, true, 1, 5);
+        Assert.assertFalse(motion.wants(false));
+        Assert.assertTrue(motion.wants(true));
+
+        DebugCapture everyThird = new DebugCapture("test", null, false, 3, 5);
+        int wanted = 0;
+        for (int i=0;i<9;i++) {
+            wanted += everyThird.wants(false) ? 1 : 0;
+        }
+        Assert.assertEquals(3, wanted);
+
+        Assert.assertFalse(new DebugCapture("test", null, false, 0, 5).wants(true));
+    }
+
+    @Test
+    public void ringKeepsTheLatestComposites() throws Exception {
+        DebugCapture capture = new DebugCapture("test", null, false, 1, 2);
+        BytePixels image = new BytePixels("frame", 8, 4, false);
+        FixedPointPixels average = new FixedPointPixels("average", image);
+        FixedPointPixels diff = new FixedPointPixels("diff", 4, 2, true);
+        MotionDetectionResult detected = new MotionDetectionResult(false, 0, 0, 0, 40, Collections.emptyList());
+
+        List<String> keys = new ArrayList<>();
+        for (int i=0;i<3;i++) {
+            // The frames all have the same name, as they would within a second
+            keys.add(capture.capture("frame", average, image, diff, diff, detected));
+            waitForFrame(capture, keys.get(i));
+        }
+        Assert.assertEquals(3, new HashSet<>(keys).size());
+
+        List<DebugFrame> frames = capture.getFrames();
+        Assert.assertEquals(2, frames.size());
+        Assert.assertEquals(keys.get(1), frames.get(0).getKey());
+        Assert.assertNull(capture.getFrame(keys.get(0)));
+
+        BufferedImage png = ImageIO.read(new ByteArrayInputStream(capture.getFrame(keys.get(2)).getPng()));
+        Assert.assertEquals(8*2*MotionDetector.DETECTION_DOWNSCALE/2, png.getWidth());
+    }
+
+    private static void waitForFrame(DebugCapture capture, String name) throws InterruptedException {
+        long timeout = System.currentTimeMillis() + 10000;
+        while (capture.getFrame(name) == null) {
+            if (System.currentTimeMillis() > timeout) {
+                throw new AssertionError(name+" was never encoded");
+            }
+            Thread.sleep(10);
+        }
+    }
+}
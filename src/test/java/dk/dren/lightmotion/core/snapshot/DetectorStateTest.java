@@ -0,0 +1,69 @@
+package dk.dren.lightmotion.core.snapshot;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+public class DetectorStateTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static DetectorState state() {
+        FixedPointPixels average = new FixedPointPixels("test-average", 8, 4, false);
+        FixedPointPixels noise = new FixedPointPixels("test-noise", 4, 2, true);
+        int[] variance = new int[8];
+        for (int i=0;i<average.getPixels().length;i++) {
+            average.getPixels()[i] = (short)(i*100);
+        }
+        for (int i=0;i<noise.getPixels().length;i++) {
+            noise.getPixels()[i] = (short)-i;
+            variance[i] = i*100000;
+        }
+        return new DetectorState(average, noise, variance, false, 7);
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        File file = new File(folder.getRoot(), "state.bin");
+        DetectorState written = state();
+        written.write(file);
+        written.write(file); // Replacing an existing file must work too
+
+        DetectorState read = DetectorState.read(file, "test");
+        Assert.assertEquals(8, read.getAverage().getWidth());
+        Assert.assertEquals(4, read.getAverage().getHeight());
+        Assert.assertFalse(read.getAverage().isMonochrome());
+        Assert.assertArrayEquals(written.getAverage().getPixels(), read.getAverage().getPixels());
+        Assert.assertArrayEquals(written.getNoise().getPixels(), read.getNoise().getPixels());
+        Assert.assertArrayEquals(written.getNoiseVariance(), read.getNoiseVariance());
+        Assert.assertFalse(read.isQuiet());
+        Assert.assertEquals(7, read.getQuietCount());
+    }
+
+    @Test(expected = IOException.class)
+    public void otherVersionsAreRejected() throws IOException {
+        File file = new File(folder.getRoot(), "state.bin");
+        state().write(file);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(4);
+            raf.write(99);
+        }
+        DetectorState.read(file, "test");
+    }
+
+    @Test(expected = IOException.class)
+    public void damagedSizesAreRejected() throws IOException {
+        File file = new File(folder.getRoot(), "state.bin");
+        state().write(file);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(8);
+            raf.write(new byte[]{0, 0, 0, 0x40}); // A width of 1G
+        }
+        DetectorState.read(file, "test");
+    }
+}
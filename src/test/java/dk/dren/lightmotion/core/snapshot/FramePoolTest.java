@@ -0,0 +1,36 @@
+package dk.dren.lightmotion.core.snapshot;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FramePoolTest {
+
+    @Test
+    public void steadyStateDoesNotAllocate() {
+        FramePool pool = new FramePool();
+
+        byte[] first = pool.acquire(640*352*3);
+        pool.release(first);
+        Assert.assertEquals(1, pool.getAllocations());
+
+        for (int i=0;i<100;i++) {
+            byte[] frame = pool.acquire(640*352*3);
+            Assert.assertSame(first, frame);
+            pool.release(frame);
+        }
+        Assert.assertEquals(1, pool.getAllocations());
+        Assert.assertEquals(640*352*3, pool.getAllocatedBytes());
+    }
+
+    @Test
+    public void sizesAreKeptApart() {
+        FramePool pool = new FramePool();
+
+        byte[] colour = pool.acquire(80*44*3);
+        pool.release(colour);
+
+        byte[] grey = pool.acquire(80*44);
+        Assert.assertEquals(80*44, grey.length);
+        Assert.assertEquals(2, pool.getAllocations());
+    }
+}
@@ -0,0 +1,56 @@
+package dk.dren.lightmotion.core.snapshot;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FrameRateTest {
+
+    @Test
+    public void framesArrivingFasterThanTheIntervalAreDropped() {
+        FrameRate frameRate = new FrameRate();
+        int accepted = 0;
+        for (long t=0;t<10000;t+=200) {
+            if (frameRate.accept(t)) {
+                accepted++;
+            }
+        }
+        Assert.assertEquals(10, accepted);
+        Assert.assertEquals(1000, frameRate.getMeasuredInterval());
+
+        frameRate.setInterval(200);
+        for (long t=10000;t<20000;t+=200) {
+            frameRate.accept(t);
+        }
+        Assert.assertEquals(200, frameRate.getMeasuredInterval(), 10);
+    }
+
+    @Test
+    public void motionIntervalAppliesAsSoonAsThereIsMotion() {
+        FrameRate frameRate = new FrameRate();
+        frameRate.setInterval(2000);
+        frameRate.setMotionInterval(200);
+        Assert.assertEquals(2000, frameRate.getInterval());
+
+        frameRate.setMotion(true);
+        Assert.assertEquals(200, frameRate.getInterval());
+        Assert.assertTrue(frameRate.accept(0));
+        Assert.assertTrue(frameRate.accept(200));
+
+        frameRate.setMotion(false);
+        Assert.assertFalse(frameRate.accept(400));
+
+        // The quiet interval wins if the load has made it shorter than the motion interval
+        frameRate.setInterval(100);
+        frameRate.setMotion(true);
+        Assert.assertEquals(100, frameRate.getInterval());
+    }
+
+    @Test
+    public void decayFollowsTheInterval() {
+        Assert.assertEquals(4, FrameRate.scaleDecay(4, 1000));
+        Assert.assertEquals(6, FrameRate.scaleDecay(4, 200));
+        Assert.assertEquals(2, FrameRate.scaleDecay(4, 4000));
+        Assert.assertEquals(10, FrameRate.scaleFrames(10, 1000));
+        Assert.assertEquals(50, FrameRate.scaleFrames(10, 200));
+    }
+}
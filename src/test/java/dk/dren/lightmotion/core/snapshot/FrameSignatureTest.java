@@ -0,0 +1,44 @@
+package dk.dren.lightmotion.core.snapshot;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FrameSignatureTest {
+
+    private static BytePixels gradient(int width, int height) {
+        byte[] pixels = new byte[width*height];
+        for (int y=0;y<height;y++) {
+            for (int x=0;x<width;x++) {
+                pixels[y*width+x] = (byte)(x*255/width);
+            }
+        }
+        return new BytePixels("gradient", width, height, true, pixels);
+    }
+
+    @Test
+    public void sameImageHasSameSignature() {
+        Assert.assertEquals(0, FrameSignature.distance(FrameSignature.of(gradient(80, 44)), FrameSignature.of(gradient(80, 44))));
+    }
+
+    @Test
+    public void changedImageHasDifferentSignature() {
+        BytePixels changed = gradient(80, 44);
+        byte[] pixels = changed.getPixels();
+        for (int y=0;y<22;y++) {
+            for (int x=0;x<40;x++) {
+                pixels[y*80+x] = (byte)255;
+            }
+        }
+        Assert.assertTrue(FrameSignature.distance(FrameSignature.of(gradient(80, 44)), FrameSignature.of(changed)) > 0);
+    }
+
+    @Test
+    public void reusedSignerGivesTheSameSignatures() {
+        BytePixels changed = gradient(80, 44);
+        changed.getPixels()[0] = (byte)255;
+        FrameSignature signer = new FrameSignature();
+        Assert.assertEquals(FrameSignature.of(changed), signer.sign(changed));
+        Assert.assertEquals(FrameSignature.of(gradient(80, 44)), signer.sign(gradient(80, 44)));
+        Assert.assertEquals(FrameSignature.of(gradient(40, 20)), signer.sign(gradient(40, 20)));
+    }
+}
@@ -0,0 +1,83 @@
+package dk.dren.lightmotion.core.snapshot;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+public class MaskCacheTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Writes a mask that masks off the left maskedWidth pixels out of 64
+     */
+    private static void writeMask(File file, int maskedWidth) throws IOException {
+        BufferedImage image = new BufferedImage(64, 32, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics g = image.getGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, 64, 32);
+        g.setColor(Color.BLACK);
+        g.fillRect(0, 0, maskedWidth, 32);
+        g.dispose();
+        File tmp = new File(file.getParentFile(), "tmp.png");
+        ImageIO.write(image, "png", tmp);
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Failed to rename "+tmp);
+        }
+    }
+
+    private static int firstUnmasked(BitPixels mask) {
+        return mask.getLineSpans().getSpans(0)[0];
+    }
+
+    @Test
+    public void editedMaskIsPickedUp() throws Exception {
+        File maskFile = new File(folder.getRoot(), "movement-mask.png");
+        MaskCache cache = new MaskCache("test", maskFile, null);
+        Assert.assertNull(cache.get(16, 8));
+
+        writeMask(maskFile, 32);
+        BitPixels mask = waitForChange(cache, null);
+        Assert.assertEquals(8, firstUnmasked(mask));
+
+        BitPixels other = cache.get(32, 16);
+        Assert.assertEquals(16, firstUnmasked(other));
+        Assert.assertSame(other, cache.get(32, 16));
+
+        writeMask(maskFile, 16);
+        mask = waitForChange(cache, mask);
+        Assert.assertEquals(4, firstUnmasked(mask));
+    }
+
+    @Test
+    public void closedCachesAreNoLongerWatched() throws Exception {
+        File dir = folder.newFolder("closing");
+        MaskCache first = new MaskCache("first", new File(dir, "movement-mask.png"), null);
+        MaskCache second = new MaskCache("second", new File(dir, "movement-mask.png"), null);
+        Assert.assertTrue(MaskCache.isWatched(dir));
+
+        first.close();
+        Assert.assertTrue(MaskCache.isWatched(dir));
+        second.close();
+        Assert.assertFalse(MaskCache.isWatched(dir));
+    }
+
+    private static BitPixels waitForChange(MaskCache cache, BitPixels old) throws InterruptedException {
+        long timeout = System.currentTimeMillis() + 20000;
+        while (System.currentTimeMillis() < timeout) {
+            BitPixels mask = cache.get(16, 8);
+            if (mask != null && mask != old) {
+                return mask;
+            }
+            Thread.sleep(50);
+        }
+        throw new AssertionError("The mask was not reloaded");
+    }
+}
@@ -0,0 +1,76 @@
+package dk.dren.lightmotion.core.snapshot;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class MotionDetectorTest {
+    private static final int DECAY = 3;
+
+    /**
+     * The diff of a 2x1 image, cell 0 is foliage that flickers between 0 and 40, cell 1 is a quiet wall at 5
+     */
+    private static FixedPointPixels diff(int foliage, int wall) {
+        FixedPointPixels diff = new FixedPointPixels("diff", 2, 1, true);
+        diff.getPixels()[0] = (short)(foliage << FixedPointPixels.FRACTION_BITS);
+        diff.getPixels()[1] = (short)(wall << FixedPointPixels.FRACTION_BITS);
+        return diff;
+    }
+
+    private static FixedPointPixels train(int[] variance) {
+        FixedPointPixels noise = new FixedPointPixels("noise", 2, 1, true);
+        for (int frame=0;frame<200;frame++) {
+            MotionDetector.updateNoiseAndSubtract(noise, variance, diff(frame % 2 == 0 ? 0 : 40, 5), DECAY, null, 2);
+        }
+        return noise;
+    }
+
+    @Test
+    public void noisyCellsNeedABiggerJump() {
+        int[] variance = new int[2];
+        FixedPointPixels noise = train(variance);
+        Assert.assertTrue(variance[0] > 0);
+        Assert.assertEquals(0, variance[1]);
+
+        // The same moderate jump in both cells, about 8 above the mean of the foliage and 23 above the wall
+        int[] varianceCopy = variance.clone();
+        FixedPointPixels noiseCopy = noise.clone("noise");
+        FixedPointPixels jump = diff(28, 28);
+        MotionDetector.updateNoiseAndSubtract(noise, variance, jump, DECAY, null, 2);
+        Assert.assertEquals(0, jump.getPixels()[0]);
+        Assert.assertTrue(jump.getPixels()[1] > 0);
+
+        // Only using the mean, the jump gets through in the foliage too
+        FixedPointPixels meanOnly = diff(28, 28);
+        MotionDetector.updateNoiseAndSubtract(noiseCopy, varianceCopy, meanOnly, DECAY, null, 0);
+        Assert.assertTrue(meanOnly.getPixels()[0] > 0);
+    }
+
+    @Test
+    public void noDeviationsIsTheMeanOnlyResult() {
+        Random random = new Random(42);
+        FixedPointPixels noise = new FixedPointPixels("noise", 8, 4, true);
+        int[] variance = new int[8*4];
+        short[] expectedNoise = new short[8*4];
+
+        for (int frame=0;frame<100;frame++) {
+            FixedPointPixels diff = new FixedPointPixels("diff", 8, 4, true);
+            for (int i=0;i<expectedNoise.length;i++) {
+                diff.getPixels()[i] = (short)random.nextInt(100 << FixedPointPixels.FRACTION_BITS);
+            }
+
+            // The noise subtraction as it was before the variance was modelled
+            short[] expectedDiff = diff.getPixels().clone();
+            for (int i=0;i<expectedNoise.length;i++) {
+                int noisePixel = expectedNoise[i] + ((expectedDiff[i] - expectedNoise[i]) >> DECAY);
+                expectedDiff[i] = noisePixel > expectedDiff[i] ? 0 : (short)(expectedDiff[i] - noisePixel);
+                expectedNoise[i] = (short)noisePixel;
+            }
+
+            MotionDetector.updateNoiseAndSubtract(noise, variance, diff, DECAY, null, 0);
+            Assert.assertArrayEquals(expectedDiff, diff.getPixels());
+            Assert.assertArrayEquals(expectedNoise, noise.getPixels());
+        }
+    }
+}
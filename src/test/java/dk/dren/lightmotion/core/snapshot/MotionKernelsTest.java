@@ -0,0 +1,52 @@
+package dk.dren.lightmotion.core.snapshot;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+public class MotionKernelsTest {
+
+    @Test
+    public void selfCheckPasses() {
+        Assert.assertTrue(MotionKernels.selfCheck());
+    }
+
+    @Test
+    public void kernelsAgreeOnFixtures() throws IOException {
+        List<BytePixels> frames = new ArrayList<>();
+        try (ZipInputStream zis = new ZipInputStream(MotionKernelsTest.class.getResourceAsStream("/car-leaving.zip"))) {
+            ZipEntry entry;
+            while ((entry = zis.getNextEntry()) != null && frames.size() < 20) {
+                BytePixels full = BytePixels.readFromAnyBytes(entry.getName(), IOUtils.toByteArray(zis));
+                frames.add(full.scale(MotionDetector.DETECTION_DOWNSCALE));
+            }
+        }
+        BytePixels first = frames.get(0);
+        Assert.assertFalse(first.isMonochrome());
+
+        BufferedImage raw = ImageIO.read(MotionKernelsTest.class.getResourceAsStream("/clock-mask.png"));
+        BufferedImage scaled = new BufferedImage(first.getWidth(), first.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
+        Graphics g = scaled.getGraphics();
+        g.drawImage(raw, 0, 0, scaled.getWidth(), scaled.getHeight(), null);
+        g.dispose();
+        BitPixels mask = new BitPixels(scaled);
+
+        int diffWidth = first.getWidth()/2;
+        int diffHeight = first.getHeight()/2;
+        Assert.assertTrue(MotionKernels.agree(new ScalarMotionKernel(), new SpanMotionKernel(), frames, null, diffWidth, diffHeight));
+        Assert.assertTrue(MotionKernels.agree(new ScalarMotionKernel(), new SpanMotionKernel(), frames, mask.getLineSpans(), diffWidth, diffHeight));
+
+        MotionKernel banded = new BandedMotionKernel(new SpanMotionKernel(), ForkJoinPool.commonPool(), 1);
+        Assert.assertTrue(MotionKernels.agree(new ScalarMotionKernel(), banded, frames, mask.getLineSpans(), diffWidth, diffHeight));
+    }
+}
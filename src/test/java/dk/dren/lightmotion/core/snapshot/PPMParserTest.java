@@ -0,0 +1,48 @@
+package dk.dren.lightmotion.core.snapshot;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public class PPMParserTest {
+
+    @Test
+    public void readP6() throws IOException {
+        byte[] bytes = IOUtils.toByteArray(PPMParserTest.class.getResourceAsStream("/frame0007.pnm"));
+
+        BytePixels image = PPMParser.readPNM("p6", ByteBuffer.wrap(bytes));
+        Assert.assertEquals(640, image.getWidth());
+        Assert.assertEquals(352, image.getHeight());
+        Assert.assertFalse(image.isMonochrome());
+        Assert.assertEquals(640*352*3, image.getPixels().length);
+    }
+
+    @Test
+    public void readP5() {
+        byte[] bytes = "P5\n4 2\n255\n\u0000\u0001\u0002\u0003\u0004\u0005\u0006ÿ".getBytes(java.nio.charset.StandardCharsets.ISO_8859_1);
+
+        BytePixels image = PPMParser.readPNM("p5", ByteBuffer.wrap(bytes));
+        Assert.assertEquals(4, image.getWidth());
+        Assert.assertEquals(2, image.getHeight());
+        Assert.assertTrue(image.isMonochrome());
+        Assert.assertEquals(3, image.getPixels()[3]);
+        Assert.assertEquals(255, image.getPixels()[7] & 0xff);
+    }
+
+    @Test
+    public void readScaledMatchesScale() throws IOException {
+        byte[] bytes = IOUtils.toByteArray(PPMParserTest.class.getResourceAsStream("/frame0007.pnm"));
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        PPMParser.Header header = PPMParser.readHeader(buffer);
+
+        BytePixels scaled = PPMParser.readPNM("full", buffer).scale(8);
+        BytePixels fused = PPMParser.readScaled("fused", header.getWidth(), header.getHeight(), header.getChannels(), buffer, header.getOffset(), 8);
+
+        Assert.assertEquals(80, fused.getWidth());
+        Assert.assertEquals(44, fused.getHeight());
+        Assert.assertArrayEquals(scaled.getPixels(), fused.getPixels());
+    }
+}
@@ -0,0 +1,69 @@
+package dk.dren.lightmotion.core.snapshot;
+
+import dk.dren.lightmotion.core.events.LightMotionEventType;
+import dk.dren.lightmotion.db.entity.Camera;
+import dk.dren.lightmotion.db.entity.Event;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class SceneDetectorTest {
+    private final Camera camera = new Camera(1L, null, "test", null, null, null, 0,0, false, null);
+
+    private static BytePixels grey(int value) {
+        BytePixels image = new BytePixels("grey", 32, 16, true);
+        Arrays.fill(image.getPixels(), (byte)value);
+        return image;
+    }
+
+    private List<Event> run(CoarseGate gate, SceneDetector detector, BytePixels image, int frames) {
+        return run(gate, detector, image, frames, FrameRate.NOMINAL_INTERVAL);
+    }
+
+    private List<Event> run(CoarseGate gate, SceneDetector detector, BytePixels image, int frames, long frameInterval) {
+        List<Event> events = new ArrayList<>();
+        for (int i=0;i<frames;i++) {
+            gate.update(image, null, 20, 4);
+            detector.update(gate.getScene(), frameInterval, camera, events::add);
+        }
+        return events;
+    }
+
+    @Test
+    public void lightsOffIsBlackout() {
+        CoarseGate gate = new CoarseGate(grey(120));
+        SceneDetector detector = new SceneDetector();
+        Assert.assertTrue(run(gate, detector, grey(120), 10).isEmpty());
+
+        List<Event> events = run(gate, detector, grey(3), 10);
+        Assert.assertTrue(events.stream().anyMatch(e -> e.getType() == LightMotionEventType.BLACKOUT && !e.isCanceling()));
+        Assert.assertTrue(events.stream().anyMatch(e -> e.getType() == LightMotionEventType.GLOBAL_CHANGE && !e.isCanceling()));
+        Assert.assertEquals(3, gate.getScene().getMeanLuminance());
+
+        events = run(gate, detector, grey(120), 60);
+        Assert.assertTrue(events.stream().anyMatch(e -> e.getType() == LightMotionEventType.BLACKOUT && e.isCanceling()));
+        Assert.assertTrue(events.stream().anyMatch(e -> e.getType() == LightMotionEventType.GLOBAL_CHANGE && e.isCanceling()));
+    }
+
+    @Test
+    public void blindingIsWhiteout() {
+        CoarseGate gate = new CoarseGate(grey(120));
+        SceneDetector detector = new SceneDetector();
+        List<Event> events = run(gate, detector, grey(252), 3);
+        Assert.assertTrue(events.stream().anyMatch(e -> e.getType() == LightMotionEventType.WHITEOUT && !e.isCanceling()));
+    }
+
+    @Test
+    public void holdsCoverTheSameTimeAtAFasterRate() {
+        CoarseGate gate = new CoarseGate(grey(120));
+        SceneDetector detector = new SceneDetector();
+        // Two frames at the nominal rate are 2 seconds, which is ten frames 200 ms apart
+        List<Event> events = run(gate, detector, grey(252), 9, 200);
+        Assert.assertFalse(events.stream().anyMatch(e -> e.getType() == LightMotionEventType.WHITEOUT));
+        events = run(gate, detector, grey(252), 1, 200);
+        Assert.assertTrue(events.stream().anyMatch(e -> e.getType() == LightMotionEventType.WHITEOUT && !e.isCanceling()));
+    }
+}
@@ -25,6 +25,6 @@ public class TestEventSink implements EventSinkWithMotionConfigOracle {
 
     @Override
     public MotionConfig getMotionConfig(Camera camera) {
-        return new MotionConfig(0, new Timestamp(0), "Fake config", 40, 2,2);
+        return new MotionConfig(0, new Timestamp(0), "Fake config", 40, 2,2, 1, 2);
     }
 }
@@ -1,6 +1,6 @@
 package dk.dren.lightmotion.image;
 
-import dk.dren.lightmotion.core.snapshot.FixedPointPixels;
+import dk.dren.lightmotion.core.snapshot.BytePixels;
 import org.apache.commons.io.IOUtils;
 import org.junit.Assert;
 import org.junit.Test;
@@ -19,7 +19,7 @@ public class LoadPPM {
         long t1 = System.currentTimeMillis();
         System.out.println("Loaded image in "+(t1-t0)+" ms");
 
-        new FixedPointPixels("test", image);
+        new BytePixels("test", image);
         long t2 = System.currentTimeMillis();
         System.out.println("Converted image in "+(t2-t1)+" ms  total: "+(t2-t0));
 
@@ -27,7 +27,7 @@ public class LoadPPM {
         long t3 = System.currentTimeMillis();
         System.out.println("Loaded bytes from classpath in "+(t3-t2)+" ms");
 
-        FixedPointPixels test = FixedPointPixels.readFromAnyBytes("test", bytes);
+        BytePixels test = BytePixels.readFromAnyBytes("test", bytes);
         long t4 = System.currentTimeMillis();
         System.out.println("Loaded ppm bytes in "+(t4-t3)+" ms");
 
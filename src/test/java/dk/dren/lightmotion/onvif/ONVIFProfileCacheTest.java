@@ -0,0 +1,39 @@
+package dk.dren.lightmotion.onvif;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+public class ONVIFProfileCacheTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void profilesSurviveTheRoundTrip() throws IOException {
+        ONVIFProfile highres = new ONVIFProfile("profile_1", 25, 1920, 1080, "rtsp://10.0.2.93:554/11", "http://10.0.2.93/snap1.jpg");
+        ONVIFProfile lowres = new ONVIFProfile("profile_2", 5, 640, 352, "rtsp://10.0.2.93:554/12", null);
+        File file = new File(folder.getRoot(), "onvif-profiles.json");
+        new ONVIFProfileCache("10.0.2.93:8080", 0, 1, highres, lowres).write(file);
+
+        ONVIFProfileCache read = ONVIFProfileCache.read(file);
+        Assert.assertNotNull(read);
+        Assert.assertEquals(highres, read.getHighres());
+        Assert.assertEquals(lowres, read.getLowres());
+        Assert.assertTrue(read.isFor("10.0.2.93:8080", 0, 1));
+        Assert.assertFalse(read.isFor("10.0.2.94:8080", 0, 1));
+        Assert.assertFalse(read.isFor("10.0.2.93:8080", 1, 1));
+    }
+
+    @Test
+    public void missingOrBrokenCacheIsIgnored() throws IOException {
+        File file = new File(folder.getRoot(), "onvif-profiles.json");
+        Assert.assertNull(ONVIFProfileCache.read(file));
+
+        folder.newFile("onvif-profiles.json");
+        Assert.assertNull(ONVIFProfileCache.read(file));
+    }
+}